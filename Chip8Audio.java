@@ -0,0 +1,126 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Square-wave beeper that streams to a {@link SourceDataLine} from its own thread. The CPU thread only publishes
+ * the sound timer on every tick; the audio thread turns that into a number of samples left to sound, so a timer
+ * value of {@code n} produces exactly {@code n} frames' worth of tone, re-synchronised on each tick. Samples are
+ * written in chunks of a fifth of a frame into a line buffer of a few chunks, which keeps the delay between a tick
+ * and the speaker at around 15 ms. Once an XO-CHIP program loads an audio pattern, its 128 one-bit samples are
+ * looped at the pattern's pitch instead of the 440 Hz tone. Nothing is allocated after the line is open except a
+ * copy of each new pattern.
+ */
+public class Chip8Audio implements Chip8Core.SoundSink, AutoCloseable {
+    public static final int SAMPLE_RATE = 44_100;
+    public static final int TONE_HZ = 440;
+    private static final int SAMPLES_PER_FRAME = SAMPLE_RATE / Chip8Clock.FRAME_RATE;
+    private static final int CHUNK_SAMPLES = SAMPLES_PER_FRAME / 5;
+    private static final int LINE_BUFFER_CHUNKS = 3;
+    private static final short AMPLITUDE = 6000;
+
+    private final SourceDataLine line;
+    private final Thread thread;
+    private final byte[] chunk = new byte[CHUNK_SAMPLES * 2];
+    private volatile boolean running = true;
+    /**
+     * Tick sequence number in the upper bits and the sound timer in the low byte, written only by the CPU thread.
+     */
+    private volatile long latestTick;
+    private long tickSequence;
+    private long seenTick;
+    private int samplesLeft;
+    private int phase;
+    /**
+     * The XO-CHIP pattern to play, or null for the square wave. Replaced as a whole by the CPU thread.
+     */
+    private volatile Pattern pattern;
+    private double patternPhase;
+
+    /**
+     * @param step pattern samples to advance per output sample
+     */
+    private record Pattern(byte[] samples, double step) {
+    }
+
+    private Chip8Audio(SourceDataLine line) {
+        this.line = line;
+        thread = new Thread(this::run, "CHIP-8 Audio");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Opens the default output line and starts streaming, or returns {@link Chip8Core.SoundSink#NONE} when there
+     * is no usable audio device, e.g. on a headless machine.
+     */
+    public static Chip8Core.SoundSink open() {
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        try {
+            SourceDataLine line = AudioSystem.getSourceDataLine(format);
+            line.open(format, CHUNK_SAMPLES * 2 * LINE_BUFFER_CHUNKS);
+            Chip8Audio audio = new Chip8Audio(line);
+            audio.thread.start();
+            return audio;
+        } catch (LineUnavailableException | IllegalArgumentException | SecurityException e) {
+            return Chip8Core.SoundSink.NONE;
+        }
+    }
+
+    @Override
+    public void tick(int soundTimer) {
+        latestTick = (++tickSequence << 8) | (soundTimer & 0xFF);
+    }
+
+    @Override
+    public void pattern(byte[] samples, int pitch) {
+        pattern = samples == null ? null
+                : new Pattern(samples.clone(), 4000 * Math.pow(2, (pitch - 64) / 48.0) / SAMPLE_RATE);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+    }
+
+    private void run() {
+        line.start();
+        while (running) {
+            long tick = latestTick;
+            if (tick != seenTick) {
+                seenTick = tick;
+                samplesLeft = (int) (tick & 0xFF) * SAMPLES_PER_FRAME;
+            }
+            fill();
+            line.write(chunk, 0, chunk.length);
+        }
+        line.stop();
+        line.close();
+    }
+
+    private void fill() {
+        Pattern pattern = this.pattern;
+        for (int i = 0; i < CHUNK_SAMPLES; i++) {
+            short sample = 0;
+            if (samplesLeft > 0) {
+                samplesLeft--;
+                if (pattern == null) {
+                    sample = phase < SAMPLE_RATE / 2 ? AMPLITUDE : -AMPLITUDE;
+                } else {
+                    int bit = (int) patternPhase;
+                    sample = (pattern.samples()[bit >> 3] << (bit & 7) & 0x80) != 0 ? AMPLITUDE : -AMPLITUDE;
+                    patternPhase += pattern.step();
+                    if (patternPhase >= 128) {
+                        patternPhase -= 128;
+                    }
+                }
+            }
+            phase += TONE_HZ;
+            if (phase >= SAMPLE_RATE) {
+                phase -= SAMPLE_RATE;
+            }
+            chunk[i * 2] = (byte) sample;
+            chunk[i * 2 + 1] = (byte) (sample >> 8);
+        }
+    }
+}
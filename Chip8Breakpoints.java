@@ -0,0 +1,423 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * PC breakpoints, memory watchpoints, register conditions and an execution trace. While any of them is armed, the
+ * core's {@link Chip8Core#runCycles(int)} hands its budget to {@link #run(int)}, an instrumented loop that checks
+ * them before every instruction; once nothing is armed the core is detached again and runs the interpreter or the
+ * recompiler untouched, so an idle debugger costs nothing per instruction.
+ *
+ * Checks happen before an instruction executes: a breakpoint stops with PC at its address, and a watchpoint stops
+ * before the instruction that would read or write the watched bytes. A condition stops when it becomes true. After
+ * a stop the core executes nothing until {@link #resume()}, which lets the instruction at PC through once.
+ *
+ * Like {@link Chip8Profiler}, all state is read and written while holding the core's monitor; the hit listener is
+ * called on the thread running the core.
+ */
+public class Chip8Breakpoints {
+    public static final int DEFAULT_TRACE_CAPACITY = 1 << 16;
+    private static final int READ = 1;
+    private static final int WRITE = 2;
+    private static final String[] REGISTERS = {
+        "V0", "V1", "V2", "V3", "V4", "V5", "V6", "V7", "V8", "V9", "VA", "VB", "VC", "VD", "VE", "VF",
+        "I", "PC", "SP", "DT", "ST"
+    };
+    private static final String[] COMPARISONS = { "==", "!=", "<=", ">=", "<", ">" };
+
+    public interface Entry {
+    }
+
+    public record Breakpoint(int address) implements Entry {
+        @Override
+        public String toString() {
+            return String.format("break 0x%03X", address);
+        }
+    }
+
+    /**
+     * Watches the bytes from {@code from} to {@code to}, inclusive.
+     */
+    public record Watchpoint(int from, int to, boolean read, boolean write) implements Entry {
+        @Override
+        public String toString() {
+            return String.format("%s%s 0x%03X", read ? "r" : "", write ? "w" : "", from)
+                    + (to != from ? String.format("-0x%03X", to) : "");
+        }
+    }
+
+    public record Condition(int register, String comparison, int value) implements Entry {
+        boolean test(Chip8Core core) {
+            int actual = switch (register) {
+                case 16 -> core.I;
+                case 17 -> core.pc;
+                case 18 -> core.sp;
+                case 19 -> core.delayTimer;
+                case 20 -> core.soundTimer;
+                default -> core.V[register] & 0xFF;
+            };
+            return switch (comparison) {
+                case "==" -> actual == value;
+                case "!=" -> actual != value;
+                case "<=" -> actual <= value;
+                case ">=" -> actual >= value;
+                case "<" -> actual < value;
+                default -> actual > value;
+            };
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s 0x%X", REGISTERS[register], comparison, value);
+        }
+    }
+
+    public enum Reason {
+        BREAKPOINT, READ, WRITE, CONDITION
+    }
+
+    public record Hit(Reason reason, int pc, Entry entry) {
+        @Override
+        public String toString() {
+            return String.format("%s at 0x%03X: %s", reason.name().toLowerCase(Locale.ROOT), pc, entry);
+        }
+    }
+
+    private final Chip8Core core;
+    private final List<Entry> entries = new ArrayList<>();
+    /**
+     * Sized for XO-CHIP's 64 KB whatever the core has now, so entries stay valid when a quirks change grows it.
+     * There is one of these per debugger, not per core.
+     */
+    private final boolean[] breakAt;
+    private final byte[] watch;
+    private final List<Condition> conditions = new ArrayList<>();
+    private boolean[] conditionWasTrue = new boolean[0];
+    private boolean watching;
+    private boolean stopped;
+    private boolean ignoreOnce;
+    private Hit lastHit;
+    private volatile Consumer<Hit> listener = _ -> {};
+
+    private boolean tracing;
+    private int[] traceAddresses;
+    private int[] traceDecoded;
+    private long[] traceCycles;
+    private long traceCount;
+
+    public Chip8Breakpoints(Chip8Core core) {
+        this.core = core;
+        breakAt = new boolean[Chip8Core.LONG_MEMORY_SIZE];
+        watch = new byte[Chip8Core.LONG_MEMORY_SIZE];
+    }
+
+    /**
+     * Parses an entry as typed in the debugger: an address ({@code 0x2A0}) for a breakpoint, {@code r}, {@code w}
+     * or {@code rw} followed by an address or range ({@code w 0x300-0x30F}) for a watchpoint, or a comparison of
+     * V0-VF, I, PC, SP, DT or ST with a number ({@code V3 == 0x10}) for a condition.
+     */
+    public static Entry parse(String text) {
+        String spec = text.trim().toUpperCase(Locale.ROOT);
+        for (String comparison : COMPARISONS) {
+            int at = spec.indexOf(comparison);
+            if (at > 0) {
+                String name = spec.substring(0, at).trim();
+                for (int register = 0; register < REGISTERS.length; register++) {
+                    if (REGISTERS[register].equals(name)) {
+                        return new Condition(register, comparison, number(spec.substring(at + comparison.length())));
+                    }
+                }
+                throw new IllegalArgumentException("Unknown register: " + name);
+            }
+        }
+        int space = spec.indexOf(' ');
+        if (space < 0) {
+            return new Breakpoint(number(spec));
+        }
+        String kind = spec.substring(0, space);
+        if (!kind.equals("R") && !kind.equals("W") && !kind.equals("RW")) {
+            throw new IllegalArgumentException("Expected r, w or rw: " + text);
+        }
+        String range = spec.substring(space + 1).trim();
+        int dash = range.indexOf('-');
+        int from = number(dash < 0 ? range : range.substring(0, dash));
+        int to = dash < 0 ? from : number(range.substring(dash + 1));
+        if (to < from) {
+            throw new IllegalArgumentException("Empty range: " + text);
+        }
+        return new Watchpoint(from, to, kind.contains("R"), kind.contains("W"));
+    }
+
+    private static int number(String text) {
+        String digits = text.trim();
+        return digits.startsWith("0X") ? Integer.parseInt(digits.substring(2), 16) : Integer.parseInt(digits);
+    }
+
+    public void add(Entry entry) {
+        synchronized (core) {
+            if (entry instanceof Breakpoint b && (b.address() < 0 || b.address() >= breakAt.length)
+                    || entry instanceof Watchpoint w && (w.from() < 0 || w.to() >= watch.length)) {
+                throw new IllegalArgumentException("Address out of range: " + entry);
+            }
+            if (!entries.contains(entry)) {
+                entries.add(entry);
+                rebuild();
+            }
+        }
+    }
+
+    public void remove(Entry entry) {
+        synchronized (core) {
+            if (entries.remove(entry)) {
+                rebuild();
+            }
+        }
+    }
+
+    public List<Entry> getEntries() {
+        synchronized (core) {
+            return List.copyOf(entries);
+        }
+    }
+
+    private void rebuild() {
+        Arrays.fill(breakAt, false);
+        Arrays.fill(watch, (byte) 0);
+        conditions.clear();
+        watching = false;
+        for (Entry entry : entries) {
+            if (entry instanceof Breakpoint b) {
+                breakAt[b.address()] = true;
+            } else if (entry instanceof Watchpoint w) {
+                for (int address = w.from(); address <= w.to(); address++) {
+                    watch[address] |= (byte) ((w.read() ? READ : 0) | (w.write() ? WRITE : 0));
+                }
+                watching = true;
+            } else if (entry instanceof Condition condition) {
+                conditions.add(condition);
+            }
+        }
+        conditionWasTrue = new boolean[conditions.size()];
+        for (int i = 0; i < conditions.size(); i++) {
+            conditionWasTrue[i] = conditions.get(i).test(core);
+        }
+        attach();
+    }
+
+    /**
+     * Keeps the last {@code capacity} executed instructions while enabled. Disabling drops the trace.
+     */
+    public void setTracing(boolean enabled, int capacity) {
+        synchronized (core) {
+            tracing = enabled;
+            if (enabled && (traceAddresses == null || traceAddresses.length != capacity)) {
+                traceAddresses = new int[capacity];
+                traceDecoded = new int[capacity];
+                traceCycles = new long[capacity];
+                traceCount = 0;
+            } else if (!enabled) {
+                traceAddresses = null;
+                traceDecoded = null;
+                traceCycles = null;
+                traceCount = 0;
+            }
+            attach();
+        }
+    }
+
+    public boolean isTracing() {
+        synchronized (core) {
+            return tracing;
+        }
+    }
+
+    private void attach() {
+        boolean armed = tracing || !entries.isEmpty();
+        if (armed != (core.getBreakpoints() == this)) {
+            core.flushCounts();
+            core.setBreakpoints(armed ? this : null);
+        }
+        if (!armed) {
+            stopped = false;
+        }
+    }
+
+    /**
+     * Called with every hit, on the thread running the core and while holding its monitor.
+     */
+    public void setListener(Consumer<Hit> listener) {
+        this.listener = listener == null ? _ -> {} : listener;
+    }
+
+    public boolean isStopped() {
+        synchronized (core) {
+            return stopped;
+        }
+    }
+
+    /**
+     * Returns the hit that caused the last stop, or null.
+     */
+    public Hit getLastHit() {
+        synchronized (core) {
+            return lastHit;
+        }
+    }
+
+    /**
+     * Lets the core run again after a stop. The instruction at PC is not checked, so it does not stop again on
+     * the same breakpoint.
+     */
+    public void resume() {
+        synchronized (core) {
+            if (stopped) {
+                stopped = false;
+                ignoreOnce = true;
+            }
+        }
+    }
+
+    /**
+     * The instrumented dispatch path. Executes up to {@code n} instructions on the interpreter, stopping early on
+     * a hit or when the program blocks on FX0A.
+     */
+    int run(int n) {
+        int executed = 0;
+        while (executed < n && !stopped && !core.waitingForKeyPress) {
+            int pc = core.pc;
+            int decoded = core.decodedAt(pc);
+            if (ignoreOnce) {
+                ignoreOnce = false;
+            } else {
+                Hit hit = check(pc, decoded);
+                if (hit != null) {
+                    stopped = true;
+                    lastHit = hit;
+                    listener.accept(hit);
+                    break;
+                }
+            }
+            if (tracing) {
+                int slot = (int) (traceCount++ % traceAddresses.length);
+                traceAddresses[slot] = pc;
+                traceDecoded[slot] = decoded;
+                traceCycles[slot] = core.cycles;
+            }
+            core.emulateCycle();
+            executed++;
+        }
+        return executed;
+    }
+
+    private Hit check(int pc, int decoded) {
+        if (breakAt[pc]) {
+            return new Hit(Reason.BREAKPOINT, pc, new Breakpoint(pc));
+        }
+        if (watching) {
+            Hit hit = checkAccess(pc, decoded);
+            if (hit != null) {
+                return hit;
+            }
+        }
+        for (int i = 0; i < conditionWasTrue.length; i++) {
+            Condition condition = conditions.get(i);
+            boolean now = condition.test(core);
+            boolean before = conditionWasTrue[i];
+            conditionWasTrue[i] = now;
+            if (now && !before) {
+                return new Hit(Reason.CONDITION, pc, condition);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Works out which bytes the instruction is about to read or write through I and checks them against the watch
+     * map. Instruction fetches are not counted as reads.
+     */
+    private Hit checkAccess(int pc, int decoded) {
+        int x = (decoded >> 8) & 0xF;
+        int y = (decoded >> 4) & 0xF;
+        int length;
+        int kind;
+        switch (decoded >>> 16) {
+            case Chip8Decoder.OP_DRW, Chip8Decoder.OP_DRW_CLIP -> {
+                length = ((decoded & 0xF) == 0 ? 32 : decoded & 0xF) * Integer.bitCount(core.planes);
+                kind = READ;
+            }
+            case Chip8Decoder.OP_BCD -> {
+                length = 3;
+                kind = WRITE;
+            }
+            case Chip8Decoder.OP_STORE, Chip8Decoder.OP_STORE_KEEP_I -> {
+                length = x + 1;
+                kind = WRITE;
+            }
+            case Chip8Decoder.OP_LOAD, Chip8Decoder.OP_LOAD_KEEP_I -> {
+                length = x + 1;
+                kind = READ;
+            }
+            case Chip8Decoder.OP_SAVE_RANGE -> {
+                length = Math.abs(x - y) + 1;
+                kind = WRITE;
+            }
+            case Chip8Decoder.OP_LOAD_RANGE -> {
+                length = Math.abs(x - y) + 1;
+                kind = READ;
+            }
+            case Chip8Decoder.OP_AUDIO -> {
+                length = 16;
+                kind = READ;
+            }
+            default -> {
+                return null;
+            }
+        }
+        int mask = watch.length - 1;
+        for (int i = 0; i < length; i++) {
+            int address = (core.I + i) & mask;
+            if ((watch[address] & kind) != 0) {
+                for (Entry entry : entries) {
+                    if (entry instanceof Watchpoint w && w.from() <= address && address <= w.to()
+                            && (kind == READ ? w.read() : w.write())) {
+                        return new Hit(kind == READ ? Reason.READ : Reason.WRITE, pc, w);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the trace, oldest instruction first, one line per instruction: cycle count, address, opcode and
+     * disassembly.
+     */
+    public void writeTrace(Path path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        synchronized (core) {
+            if (traceAddresses == null) {
+                throw new IllegalStateException("Tracing is off");
+            }
+            int capacity = traceAddresses.length;
+            long first = Math.max(0, traceCount - capacity);
+            for (long i = first; i < traceCount; i++) {
+                int slot = (int) (i % capacity);
+                int decoded = traceDecoded[slot];
+                int opcode = (decoded >>> 16) == Chip8Decoder.OP_LD_I_LONG ? Chip8Decoder.LONG_LOAD : decoded & 0xFFFF;
+                lines.add(String.format("%12d  0x%04X  %04X  %s", traceCycles[slot], traceAddresses[slot], opcode,
+                        Chip8Decoder.disassemble(decoded)));
+            }
+        }
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            for (String line : lines) {
+                out.println(line);
+            }
+        }
+    }
+}
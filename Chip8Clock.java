@@ -0,0 +1,254 @@
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Drives a {@link Chip8Core} from a dedicated thread. Frames are scheduled against {@link System#nanoTime()} with
+ * absolute deadlines, so jitter in one frame does not accumulate into drift, and the delay and sound timers tick
+ * exactly once per 60 Hz frame whatever the instruction rate is.
+ *
+ * When the thread falls behind, up to {@code maxCatchUpFrames} late frames are emulated back to back, presenting
+ * at most every {@code maxFrameSkip + 1}-th of them; anything later than that is dropped and the schedule restarts
+ * from the current time. Every frame runs while holding the core's monitor, so other threads that touch the core
+ * should synchronize on it too.
+ *
+ * Key events from a {@link Chip8Input} queue are applied on the clock thread between instructions. An event that
+ * happened during the previous frame interval is applied at the same relative position within the current frame,
+ * e.g. a key pressed halfway through an interval lands halfway through the next frame's instructions, so input
+ * latency is a fixed frame in emulated time whatever the host timing.
+ *
+ * With run-ahead enabled, frames are presented from a {@link Chip8RunAhead} core kept a few frames in front of the
+ * real one, which takes that many frames off the perceived latency. Run-ahead needs a fixed instruction rate and is
+ * ignored while the clock runs {@link #UNLIMITED}.
+ */
+public class Chip8Clock {
+    public static final int UNLIMITED = 0;
+    public static final int FRAME_RATE = 60;
+    private static final long FRAME_NANOS = 1_000_000_000L / FRAME_RATE;
+    private static final int UNLIMITED_BATCH = 10_000;
+    private static final long SPIN_NANOS = 500_000;
+
+    private final Chip8Core core;
+    private final Thread thread;
+    private volatile int instructionsPerSecond;
+    private volatile int maxCatchUpFrames = 5;
+    private volatile int maxFrameSkip = 2;
+    private volatile boolean paused = true;
+    private volatile boolean running = true;
+    private volatile Consumer<RuntimeException> errorHandler = Throwable::printStackTrace;
+    private volatile Runnable frameHook = () -> {};
+    private volatile int runAheadFrames;
+    private final Chip8Input input = new Chip8Input();
+    private double cycleCredit;
+    private Chip8RunAhead runAhead;
+    private Chip8Core presented;
+
+    public Chip8Clock(Chip8Core core, int instructionsPerSecond) {
+        this.core = core;
+        this.instructionsPerSecond = instructionsPerSecond;
+        thread = new Thread(this::run, "CHIP-8 CPU");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        if (!paused) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Sets the instruction rate, or {@link #UNLIMITED} to run as many instructions as fit in each frame.
+     */
+    public void setInstructionsPerSecond(int instructionsPerSecond) {
+        this.instructionsPerSecond = instructionsPerSecond;
+    }
+
+    public int getInstructionsPerSecond() {
+        return instructionsPerSecond;
+    }
+
+    public void setMaxCatchUpFrames(int maxCatchUpFrames) {
+        this.maxCatchUpFrames = maxCatchUpFrames;
+    }
+
+    public void setMaxFrameSkip(int maxFrameSkip) {
+        this.maxFrameSkip = maxFrameSkip;
+    }
+
+    /**
+     * Sets how many frames ahead of the emulated machine the display runs, from 0 (off) to
+     * {@link Chip8RunAhead#MAX_FRAMES}.
+     */
+    public void setRunAheadFrames(int runAheadFrames) {
+        if (runAheadFrames < 0 || runAheadFrames > Chip8RunAhead.MAX_FRAMES) {
+            throw new IllegalArgumentException("Run-ahead must be between 0 and " + Chip8RunAhead.MAX_FRAMES + " frames");
+        }
+        this.runAheadFrames = runAheadFrames;
+    }
+
+    public int getRunAheadFrames() {
+        return runAheadFrames;
+    }
+
+    /**
+     * Called on the clock thread when a frame throws. The clock pauses itself before calling it.
+     */
+    public void setErrorHandler(Consumer<RuntimeException> errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Called on the clock thread at the end of every frame, after the timer tick, while holding the core's monitor.
+     */
+    public void setFrameHook(Runnable frameHook) {
+        this.frameHook = frameHook == null ? () -> {} : frameHook;
+    }
+
+    /**
+     * Returns the queue key events should be offered to. Events are applied by the clock thread.
+     */
+    public Chip8Input getInput() {
+        return input;
+    }
+
+    /**
+     * Executes one instruction without ticking the timers, after applying any queued key events. Meant for
+     * single-stepping while paused. Armed {@link Chip8Breakpoints} see the instruction too.
+     */
+    public void step() {
+        synchronized (core) {
+            input.applyAll(core);
+            core.runCycles(1);
+        }
+    }
+
+    private void run() {
+        long deadline = System.nanoTime();
+        int skipped = 0;
+        while (running) {
+            if (paused) {
+                LockSupport.park(this);
+                deadline = System.nanoTime();
+                cycleCredit = 0;
+                continue;
+            }
+
+            long late = (System.nanoTime() - deadline) / FRAME_NANOS;
+            if (late > maxCatchUpFrames) {
+                deadline = System.nanoTime();
+                late = 0;
+            }
+            boolean present = late == 0 || skipped >= maxFrameSkip;
+            deadline += FRAME_NANOS;
+
+            Chip8Metrics.FrameEvent event = new Chip8Metrics.FrameEvent();
+            event.begin();
+            int ips = instructionsPerSecond;
+            int frames = ips == UNLIMITED ? 0 : runAheadFrames;
+            try {
+                synchronized (core) {
+                    if (frames > 0) {
+                        if (runAhead == null) {
+                            runAhead = new Chip8RunAhead();
+                        }
+                        runAhead.beginFrame();
+                    }
+                    long start = System.nanoTime();
+                    event.instructions = runFrame(deadline, ips);
+                    long elapsed = System.nanoTime() - start;
+                    boolean stopped = core.isStopped();
+                    if (stopped) {
+                        present &= event.instructions > 0;
+                    } else {
+                        core.tickTimers();
+                    }
+                    Chip8Core shown = core;
+                    if (frames > 0 && !stopped) {
+                        shown = runAhead.endFrame(core, frames, ips, cycleCredit);
+                    } else if (runAhead != null) {
+                        runAhead.invalidate();
+                    }
+                    if (shown != presented) {
+                        shown.markDisplayDirty();
+                        presented = shown;
+                    }
+                    if (present) {
+                        shown.present();
+                    }
+                    frameHook.run();
+                    Chip8Metrics metrics = core.getMetrics();
+                    if (metrics != null) {
+                        metrics.frameCompleted(elapsed, present);
+                    }
+                }
+            } catch (RuntimeException e) {
+                paused = true;
+                errorHandler.accept(e);
+                continue;
+            }
+            event.presented = present;
+            event.commit();
+            skipped = present ? 0 : skipped + 1;
+
+            sleepUntil(deadline);
+        }
+        if (runAhead != null) {
+            runAhead.close();
+        }
+    }
+
+    private long runFrame(long deadline, int ips) {
+        long intervalEnd = deadline - FRAME_NANOS;
+        long intervalStart = intervalEnd - FRAME_NANOS;
+        if (ips == UNLIMITED) {
+            while (input.peekTimestamp() < intervalEnd) {
+                input.applyNext(core);
+            }
+            long executed = 0;
+            do {
+                executed += core.runCycles(UNLIMITED_BATCH);
+            } while (!core.isWaitingForKeyPress() && !core.isStopped() && System.nanoTime() < deadline);
+            return executed;
+        }
+        cycleCredit += (double) ips / FRAME_RATE;
+        int cycles = (int) cycleCredit;
+        cycleCredit -= cycles;
+
+        long executed = 0;
+        int position = 0;
+        long timestamp;
+        while ((timestamp = input.peekTimestamp()) < intervalEnd) {
+            int due = timestamp <= intervalStart ? 0 : (int) ((timestamp - intervalStart) * cycles / FRAME_NANOS);
+            if (due > position) {
+                executed += core.runCycles(due - position);
+                position = due;
+            }
+            input.applyNext(core);
+        }
+        return executed + core.runCycles(cycles - position);
+    }
+
+    private void sleepUntil(long deadline) {
+        long remaining;
+        while (running && !paused && (remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(this, remaining - SPIN_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Golden-image check for the ROM corpus. Every ROM runs headless for a fixed number of instructions with a fixed
+ * seed, once through the interpreter and once through the recompiler, on a {@link Chip8Farm}. The final
+ * framebuffer is reduced to an XXH64 hash of its packed rows and compared with the hash recorded in
+ * {@code golden.txt} next to the ROMs. {@code --update} rewrites that file from the interpreter results.
+ *
+ * Before the ROMs, {@link #checkKeyWaits()} round-trips a core blocked in FX0A through the snapshot format and the
+ * rewind buffer for each of the 16 keys, and {@link #checkStream()} streams a core over loopback TCP.
+ *
+ * The exit status is non-zero when any run fails, so the check can gate a build.
+ */
+public class Chip8Conformance {
+    static final String GOLDEN_FILE = "golden.txt";
+    private static final long DEFAULT_CYCLES = 1_000_000;
+    private static final int DEFAULT_CYCLES_PER_FRAME = 10;
+    private static final long SEED = 1;
+    private static final long STREAM_TIMEOUT_MILLIS = 10_000;
+
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    record Golden(long cycles, int cyclesPerFrame, long seed, long hash) {
+    }
+
+    /**
+     * XXH64 with seed 0 over the rows as little-endian 64-bit lanes, i.e. over {@code rows.length * 8} bytes.
+     */
+    public static long hash(long[] rows) {
+        int length = rows.length * 8;
+        int i = 0;
+        long h;
+        if (rows.length >= 4) {
+            long v1 = PRIME64_1 + PRIME64_2;
+            long v2 = PRIME64_2;
+            long v3 = 0;
+            long v4 = -PRIME64_1;
+            for (; i + 4 <= rows.length; i += 4) {
+                v1 = round(v1, rows[i]);
+                v2 = round(v2, rows[i + 1]);
+                v3 = round(v3, rows[i + 2]);
+                v4 = round(v4, rows[i + 3]);
+            }
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = PRIME64_5;
+        }
+        h += length;
+        for (; i < rows.length; i++) {
+            h ^= round(0, rows[i]);
+            h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+        }
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long lane) {
+        acc += lane * PRIME64_2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME64_1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME64_1 + PRIME64_4;
+    }
+
+    /**
+     * Blocks FX0A on each key in turn, saves the state, restores it into a fresh core and releases the key, which
+     * must complete the wait. Checks the binary snapshot format and a rewind delta frame.
+     *
+     * @return the number of keys that failed
+     */
+    static int checkKeyWaits() throws IOException {
+        int failures = 0;
+        for (int k = 0; k < 16; k++) {
+            Chip8Core core = new Chip8Core();
+            core.loadROM(new byte[] { (byte) 0xF3, 0x0A, 0x12, 0x02 });
+            core.runCycles(1);
+            core.keyDown(k);
+
+            Chip8Snapshot snapshot = Chip8Snapshot.capture(core);
+            ByteBuffer buffer = ByteBuffer.allocate(snapshot.byteSize());
+            snapshot.writeTo(buffer);
+            Chip8Core restored = new Chip8Core();
+            Chip8Snapshot.readFrom(buffer.flip()).restoreTo(restored);
+
+            Chip8Rewind rewind = new Chip8Rewind(2);
+            for (int frame = 0; frame < 3; frame++) {
+                rewind.record(core);
+            }
+            Chip8Core rewound = new Chip8Core();
+            rewind.stepBack(rewound);
+
+            for (Chip8Core resumed : new Chip8Core[] { restored, rewound }) {
+                resumed.keyUp(k);
+                if (resumed.isWaitingForKeyPress() || resumed.V[3] != k) {
+                    System.out.printf("FX0A wait on key %X not restored from %s%n", k,
+                            resumed == restored ? "snapshot" : "rewind");
+                    failures++;
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Serves a core that waits in FX0A and then draws the font sprite of the key pressed on a {@link Chip8Server}
+     * bound to an ephemeral loopback port, presses a key through a {@link Chip8StreamClient} and reads frames until
+     * the client shows what a local core run with the same key shows. The server core must then have received the
+     * key and hold the display the client decoded. A watchdog closes the client if that takes more than
+     * {@code STREAM_TIMEOUT_MILLIS}, since frames stop once the display no longer changes.
+     *
+     * @return whether the round trip worked
+     */
+    static boolean checkStream() throws IOException {
+        byte[] rom = { (byte) 0xF3, 0x0A, (byte) 0xF3, 0x29, (byte) 0xD0, 0x05, 0x12, 0x06 };
+        int key = 7;
+        Chip8Core expected = new Chip8Core();
+        expected.loadROM(rom);
+        expected.runCycles(1);
+        expected.keyDown(key);
+        expected.keyUp(key);
+        expected.runCycles(3);
+
+        Chip8Core served = new Chip8Core();
+        served.loadROM(rom);
+        boolean matched = false;
+        try (Chip8Server server = new Chip8Server(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 600)) {
+            server.addInstance("loopback", served);
+            server.start();
+            try (Chip8StreamClient client = new Chip8StreamClient(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()))) {
+                Thread watchdog = Thread.ofVirtual().start(() -> {
+                    try {
+                        Thread.sleep(STREAM_TIMEOUT_MILLIS);
+                        client.close();
+                    } catch (InterruptedException | IOException e) {
+                        // Finished in time, or already closed.
+                    }
+                });
+                try {
+                    client.readFrame();
+                    client.key(key, true);
+                    client.key(key, false);
+                    while (!matched) {
+                        client.readFrame();
+                        matched = Arrays.equals(client.getScreen().display, expected.display);
+                    }
+                } catch (IOException e) {
+                    System.out.println("Stream loopback: " + e);
+                } finally {
+                    watchdog.interrupt();
+                }
+            }
+        }
+        // Closing the server joined its thread, so the served core can be read here.
+        return matched && served.V[3] == key && Arrays.equals(served.display, expected.display);
+    }
+
+    static Map<String, Golden> readGolden(Path file) throws IOException {
+        Map<String, Golden> golden = new LinkedHashMap<>();
+        if (!Files.exists(file)) {
+            return golden;
+        }
+        for (String line : Files.readAllLines(file)) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            golden.put(fields[0], new Golden(Long.parseLong(fields[1]), Integer.parseInt(fields[2]),
+                    Long.parseLong(fields[3]), Long.parseUnsignedLong(fields[4], 16)));
+        }
+        return golden;
+    }
+
+    static void writeGolden(Path file, Map<String, Golden> golden) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# rom cycles instructions-per-frame seed xxh64-of-display");
+        golden.forEach((rom, g) -> lines.add(String.format("%s %d %d %d %016x", rom, g.cycles(), g.cyclesPerFrame(),
+                g.seed(), g.hash())));
+        Files.write(file, lines);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long cycles = DEFAULT_CYCLES;
+        boolean update = false;
+        Path directory = Path.of("test roms");
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--cycles" -> cycles = Long.parseLong(args[++i]);
+                case "--update" -> update = true;
+                default -> directory = Path.of(args[i]);
+            }
+        }
+
+        Path goldenFile = directory.resolve(GOLDEN_FILE);
+        Map<String, Golden> golden = readGolden(goldenFile);
+        List<Chip8Farm.Job> jobs = new ArrayList<>();
+        for (Chip8Rom rom : Chip8Rom.openAll(List.of(directory.toString()))) {
+            String name = rom.name();
+            Golden expected = golden.get(name);
+            if (update || expected == null) {
+                expected = new Golden(cycles, DEFAULT_CYCLES_PER_FRAME, SEED, 0);
+            }
+            for (boolean jit : new boolean[] { false, true }) {
+                jobs.add(new Chip8Farm.Job(rom, expected.cycles(), expected.cyclesPerFrame(), expected.seed(), jit));
+            }
+        }
+        if (jobs.isEmpty()) {
+            System.err.println("Usage: java Chip8Conformance [--threads N] [--cycles N] [--update] [rom directory]");
+            System.exit(1);
+        }
+
+        int keyWaitFailures = checkKeyWaits();
+        System.out.printf("FX0A snapshot round trip: %s%n", keyWaitFailures == 0 ? "PASS" : keyWaitFailures + " failed");
+        boolean streamed = checkStream();
+        System.out.printf("Stream loopback: %s%n", streamed ? "PASS" : "FAIL");
+
+        List<Chip8Farm.Result> results;
+        long start = System.nanoTime();
+        try (Chip8Farm farm = new Chip8Farm(threads)) {
+            results = farm.run(jobs);
+        }
+        long wall = System.nanoTime() - start;
+
+        Map<String, Golden> updated = new LinkedHashMap<>();
+        int failures = 0;
+        System.out.printf("%-16s %-6s %10s %10s %14s  %-16s %s%n", "ROM", "MODE", "CYCLES", "MS", "IPS", "HASH", "RESULT");
+        for (int i = 0; i < results.size(); i++) {
+            Chip8Farm.Job job = jobs.get(i);
+            Chip8Farm.Result result = results.get(i);
+            long hash = hash(result.display());
+            Golden expected = golden.get(job.name());
+            String verdict;
+            if (result.error() != null) {
+                verdict = "ERROR " + result.error();
+            } else if (update) {
+                Golden recorded = updated.putIfAbsent(job.name(), new Golden(job.cycles(), job.cyclesPerFrame(), job.seed(), hash));
+                verdict = recorded == null || recorded.hash() == hash ? "UPDATED" : "MISMATCH interpreter " + Long.toHexString(recorded.hash());
+            } else if (expected == null) {
+                verdict = "NO GOLDEN";
+            } else {
+                verdict = expected.hash() == hash ? "PASS" : String.format("FAIL expected %016x", expected.hash());
+            }
+            if (!verdict.equals("PASS") && !verdict.equals("UPDATED")) {
+                failures++;
+            }
+            System.out.printf("%-16s %-6s %10d %10.3f %14.0f  %016x %s%n", job.name(), job.jit() ? "jit" : "interp",
+                    result.cycles(), result.nanos() / 1e6, result.cycles() * 1e9 / Math.max(1, result.nanos()), hash, verdict);
+        }
+        System.out.printf("%d runs on %d threads in %.3f s, %d failed%n", results.size(), threads, wall / 1e9, failures);
+
+        if (update) {
+            writeGolden(goldenFile, updated);
+        }
+        if (failures + keyWaitFailures > 0 || !streamed) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,1092 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Chip8Core {
+    public static final int WIDTH = 64;
+    public static final int HEIGHT = 32;
+    public static final int HIRES_WIDTH = 128;
+    public static final int HIRES_HEIGHT = 64;
+    public static final int PLANES = 2;
+    /**
+     * The classic 4 KB, all that 12-bit NNN operands reach. Cores start with this much unless their profile has
+     * {@link Chip8Quirks#longLoad()}.
+     */
+    public static final int MEMORY_SIZE = 0x1000;
+    /**
+     * XO-CHIP's 64 KB, reached through F000 NNNN. See {@link #memorySize(Chip8Quirks, int)}.
+     */
+    public static final int LONG_MEMORY_SIZE = 0x10000;
+    public static final int PROGRAM_START = 0x200;
+    public static final int FONTSET_START = 0x50;
+    public static final int BIG_FONTSET_START = 0xA0;
+    static final int ROW_WORDS = HIRES_WIDTH / 64;
+    static final int PLANE_WORDS = HIRES_HEIGHT * ROW_WORDS;
+
+    private static final byte[] FONTSET = {
+        (byte) 0xF0, (byte) 0x90, (byte) 0x90, (byte) 0x90, (byte) 0xF0, // 0
+        (byte) 0x20, (byte) 0x60, (byte) 0x20, (byte) 0x20, (byte) 0x70, // 1
+        (byte) 0xF0, (byte) 0x10, (byte) 0xF0, (byte) 0x80, (byte) 0xF0, // 2
+        (byte) 0xF0, (byte) 0x10, (byte) 0xF0, (byte) 0x10, (byte) 0xF0, // 3
+        (byte) 0x90, (byte) 0x90, (byte) 0xF0, (byte) 0x10, (byte) 0x10, // 4
+        (byte) 0xF0, (byte) 0x80, (byte) 0xF0, (byte) 0x10, (byte) 0xF0, // 5
+        (byte) 0xF0, (byte) 0x80, (byte) 0xF0, (byte) 0x90, (byte) 0xF0, // 6
+        (byte) 0xF0, (byte) 0x10, (byte) 0x20, (byte) 0x40, (byte) 0x40, // 7
+        (byte) 0xF0, (byte) 0x90, (byte) 0xF0, (byte) 0x90, (byte) 0xF0, // 8
+        (byte) 0xF0, (byte) 0x90, (byte) 0xF0, (byte) 0x10, (byte) 0xF0, // 9
+        (byte) 0xF0, (byte) 0x90, (byte) 0xF0, (byte) 0x90, (byte) 0x90, // A
+        (byte) 0xE0, (byte) 0x90, (byte) 0xE0, (byte) 0x90, (byte) 0xE0, // B
+        (byte) 0xF0, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0xF0, // C
+        (byte) 0xE0, (byte) 0x90, (byte) 0x90, (byte) 0x90, (byte) 0xE0, // D
+        (byte) 0xF0, (byte) 0x80, (byte) 0xF0, (byte) 0x80, (byte) 0xF0, // E
+        (byte) 0xF0, (byte) 0x80, (byte) 0xF0, (byte) 0x80, (byte) 0x80  // F
+    };
+
+    /**
+     * The SUPER-CHIP 8x10 digits read through FX30, with Octo's A-F.
+     */
+    private static final byte[] BIG_FONTSET = {
+        (byte) 0x3C, (byte) 0x7E, (byte) 0xE7, (byte) 0xC3, (byte) 0xC3, (byte) 0xC3, (byte) 0xC3, (byte) 0xE7, (byte) 0x7E, (byte) 0x3C, // 0
+        (byte) 0x18, (byte) 0x38, (byte) 0x58, (byte) 0x18, (byte) 0x18, (byte) 0x18, (byte) 0x18, (byte) 0x18, (byte) 0x18, (byte) 0x3C, // 1
+        (byte) 0x3E, (byte) 0x7F, (byte) 0xC3, (byte) 0x06, (byte) 0x0C, (byte) 0x18, (byte) 0x30, (byte) 0x60, (byte) 0xFF, (byte) 0xFF, // 2
+        (byte) 0x3C, (byte) 0x7E, (byte) 0xC3, (byte) 0x03, (byte) 0x0E, (byte) 0x0E, (byte) 0x03, (byte) 0xC3, (byte) 0x7E, (byte) 0x3C, // 3
+        (byte) 0x06, (byte) 0x0E, (byte) 0x1E, (byte) 0x36, (byte) 0x66, (byte) 0xC6, (byte) 0xFF, (byte) 0xFF, (byte) 0x06, (byte) 0x06, // 4
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xC0, (byte) 0xC0, (byte) 0xFC, (byte) 0xFE, (byte) 0x03, (byte) 0xC3, (byte) 0x7E, (byte) 0x3C, // 5
+        (byte) 0x3E, (byte) 0x7C, (byte) 0xC0, (byte) 0xC0, (byte) 0xFC, (byte) 0xFE, (byte) 0xC3, (byte) 0xC3, (byte) 0x7E, (byte) 0x3C, // 6
+        (byte) 0xFF, (byte) 0xFF, (byte) 0x03, (byte) 0x06, (byte) 0x0C, (byte) 0x18, (byte) 0x30, (byte) 0x60, (byte) 0x60, (byte) 0x60, // 7
+        (byte) 0x3C, (byte) 0x7E, (byte) 0xC3, (byte) 0xC3, (byte) 0x7E, (byte) 0x7E, (byte) 0xC3, (byte) 0xC3, (byte) 0x7E, (byte) 0x3C, // 8
+        (byte) 0x3C, (byte) 0x7E, (byte) 0xC3, (byte) 0xC3, (byte) 0x7F, (byte) 0x3F, (byte) 0x03, (byte) 0x03, (byte) 0x3E, (byte) 0x7C, // 9
+        (byte) 0x7E, (byte) 0xFF, (byte) 0xC3, (byte) 0xC3, (byte) 0xC3, (byte) 0xFF, (byte) 0xFF, (byte) 0xC3, (byte) 0xC3, (byte) 0xC3, // A
+        (byte) 0xFC, (byte) 0xFC, (byte) 0xC3, (byte) 0xC3, (byte) 0xFC, (byte) 0xFC, (byte) 0xC3, (byte) 0xC3, (byte) 0xFC, (byte) 0xFC, // B
+        (byte) 0x3C, (byte) 0xFF, (byte) 0xC3, (byte) 0xC0, (byte) 0xC0, (byte) 0xC0, (byte) 0xC0, (byte) 0xC3, (byte) 0xFF, (byte) 0x3C, // C
+        (byte) 0xFC, (byte) 0xFE, (byte) 0xC3, (byte) 0xC3, (byte) 0xC3, (byte) 0xC3, (byte) 0xC3, (byte) 0xC3, (byte) 0xFE, (byte) 0xFC, // D
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xC0, (byte) 0xC0, (byte) 0xFF, (byte) 0xFF, (byte) 0xC0, (byte) 0xC0, (byte) 0xFF, (byte) 0xFF, // E
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xC0, (byte) 0xC0, (byte) 0xFF, (byte) 0xFF, (byte) 0xC0, (byte) 0xC0, (byte) 0xC0, (byte) 0xC0  // F
+    };
+
+    /**
+     * Receives the framebuffer once per frame, after the timers have ticked.
+     */
+    public interface DisplaySink {
+        DisplaySink NONE = _ -> {};
+
+        void present(Chip8Core core);
+    }
+
+    /**
+     * Receives the sound timer value on every 60 Hz tick, before it is decremented.
+     */
+    public interface SoundSink {
+        SoundSink NONE = _ -> {};
+
+        void tick(int soundTimer);
+
+        /**
+         * Called when the XO-CHIP audio pattern or pitch changes. {@code pattern} holds 128 one-bit samples played
+         * at {@code 4000 * 2^((pitch - 64) / 48)} Hz, or is null until a program loads one with F002; it is only
+         * valid during the call.
+         */
+        default void pattern(byte[] pattern, int pitch) {
+        }
+    }
+
+    /**
+     * Grows from {@link #MEMORY_SIZE} to {@link #LONG_MEMORY_SIZE} when needed and never shrinks, so code holding
+     * on to it must read the field again after a quirks change, a ROM load or a restored snapshot.
+     */
+    protected byte[] memory;
+    protected final byte[] V = new byte[16];
+    protected int I, pc;
+    protected final int[] stack = new int[16];
+    protected int sp;
+    protected int delayTimer, soundTimer;
+    protected final boolean[] keys = new boolean[16];
+    /**
+     * The packed framebuffer: for each of the {@link #PLANES} bit planes, {@link #HIRES_HEIGHT} rows of
+     * {@link #ROW_WORDS} longs, indexed through {@link #row(int, int)}. Bit 63 of a row's first word is the leftmost
+     * pixel (x = 0) and bit 0 of its last word the rightmost. In low resolution only the first {@link #HEIGHT} rows
+     * and the first word of each row are used, so classic programs touch one long per row as before.
+     */
+    protected final long[] display = new long[PLANES * PLANE_WORDS];
+    protected long dirtyRows = -1L;
+    protected boolean hires;
+    /**
+     * Bit mask of the planes that FN01 selected for drawing, clearing and scrolling.
+     */
+    protected int planes = 1;
+    /**
+     * SUPER-CHIP's RPL user flags, kept across restarts.
+     */
+    protected final byte[] flags = new byte[16];
+    protected final byte[] audioPattern = new byte[16];
+    protected boolean audioPatternLoaded;
+    protected int pitch = 64;
+    protected boolean waitingForKeyPress = false;
+    protected int keyRegister = 0;
+    /**
+     * The key pressed since FX0A started waiting, or -1. FX0A completes when this key is released.
+     */
+    protected int waitKey = -1;
+    protected long cycles;
+    protected long rngState;
+    /**
+     * Incremented whenever the machine is changed other than by running it: restarts, ROM loads, key events, quirks
+     * and seed changes, and restored snapshots. {@link Chip8RunAhead} compares it to tell whether its speculation
+     * still holds.
+     */
+    int changes;
+    private int[] decoded;
+    private Chip8Quirks quirks;
+    private Chip8Jit jit;
+    private DisplaySink displaySink = DisplaySink.NONE;
+    private SoundSink soundSink = SoundSink.NONE;
+    private Chip8Metrics metrics;
+    private long[] opcodeCounts;
+    private Chip8Profiler profiler;
+    private long[] addressCounts;
+    private Chip8Movie.Recorder recorder;
+    private Chip8Breakpoints breakpoints;
+
+    private static final AtomicLong SEED_UNIQUIFIER = new AtomicLong(0x2545F4914F6CDD1DL);
+
+    public Chip8Core() {
+        this(Chip8Quirks.DEFAULT);
+    }
+
+    public Chip8Core(Chip8Quirks quirks) {
+        this.quirks = quirks;
+        memory = new byte[memorySize(quirks, 0)];
+        decoded = new int[memory.length];
+        setSeed(SEED_UNIQUIFIER.getAndAdd(0x9E3779B97F4A7C15L) ^ System.nanoTime());
+        reset();
+    }
+
+    /**
+     * Seeds the instance's CXKK generator. Each core has its own generator, so cores on different threads neither
+     * contend on shared state nor disturb each other's sequences.
+     */
+    public void setSeed(long seed) {
+        rngState = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+        changes++;
+    }
+
+    /**
+     * Switches {@link #runCycles(int)} between the interpreter and the basic-block recompiler.
+     */
+    public void setJitEnabled(boolean enabled) {
+        flushCounts();
+        jit = enabled ? new Chip8Jit(this) : null;
+    }
+
+    public boolean isJitEnabled() {
+        return jit != null;
+    }
+
+    public Chip8Quirks getQuirks() {
+        return quirks;
+    }
+
+    /**
+     * Switches the quirks profile. Memory and registers are kept, and memory grows to 64 KB for a profile with
+     * {@link Chip8Quirks#longLoad()}; every cached decode and compiled block is dropped so that instructions are
+     * decoded again into the variants of the new profile.
+     */
+    public void setQuirks(Chip8Quirks quirks) {
+        if (quirks.equals(this.quirks)) {
+            return;
+        }
+        this.quirks = quirks;
+        growMemory(memorySize(quirks, 0));
+        Arrays.fill(decoded, 0);
+        if (jit != null) {
+            jit.clear();
+        }
+        changes++;
+    }
+
+    public void setDisplaySink(DisplaySink displaySink) {
+        this.displaySink = displaySink == null ? DisplaySink.NONE : displaySink;
+    }
+
+    DisplaySink getDisplaySink() {
+        return displaySink;
+    }
+
+    public void setSoundSink(SoundSink soundSink) {
+        this.soundSink = soundSink == null ? SoundSink.NONE : soundSink;
+        audioChanged();
+    }
+
+    /**
+     * Returns the metrics currently being collected, or null. See {@link Chip8Metrics#setEnabled(boolean)}.
+     */
+    public Chip8Metrics getMetrics() {
+        return metrics;
+    }
+
+    void setMetrics(Chip8Metrics metrics) {
+        this.metrics = metrics;
+        opcodeCounts = metrics == null ? null : metrics.opcodes;
+    }
+
+    /**
+     * Returns the profiler currently attached, or null. See {@link Chip8Profiler#setEnabled(boolean)}.
+     */
+    public Chip8Profiler getProfiler() {
+        return profiler;
+    }
+
+    void setProfiler(Chip8Profiler profiler) {
+        this.profiler = profiler;
+        addressCounts = profiler == null ? null : profiler.executions;
+    }
+
+    /**
+     * Returns the movie recorder currently attached, or null. See {@link Chip8Movie#record}.
+     */
+    public Chip8Movie.Recorder getRecorder() {
+        return recorder;
+    }
+
+    void setRecorder(Chip8Movie.Recorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Returns the breakpoints that are armed on this core, or null. See {@link Chip8Breakpoints}.
+     */
+    public Chip8Breakpoints getBreakpoints() {
+        return breakpoints;
+    }
+
+    void setBreakpoints(Chip8Breakpoints breakpoints) {
+        this.breakpoints = breakpoints;
+    }
+
+    /**
+     * Returns true while armed breakpoints have stopped the core. A stopped core executes nothing, and its timers and
+     * display stand still until {@link Chip8Breakpoints#resume()}.
+     */
+    public boolean isStopped() {
+        return breakpoints != null && breakpoints.isStopped();
+    }
+
+    /**
+     * Adds the instructions executed inside compiled blocks to the opcode histogram and the profiler.
+     */
+    void flushCounts() {
+        if (jit != null) {
+            jit.flushCounts(opcodeCounts, addressCounts);
+        }
+    }
+
+    /**
+     * Clears the whole machine, including memory, and reloads the fontset.
+     */
+    public void reset() {
+        Arrays.fill(memory, (byte) 0);
+        Arrays.fill(decoded, 0);
+        Arrays.fill(flags, (byte) 0);
+        if (jit != null) {
+            jit.clear();
+        }
+        restart();
+        System.arraycopy(FONTSET, 0, memory, FONTSET_START, FONTSET.length);
+        System.arraycopy(BIG_FONTSET, 0, memory, BIG_FONTSET_START, BIG_FONTSET.length);
+    }
+
+    /**
+     * Clears registers, stack, timers, keys and display but keeps memory, so a loaded ROM boots again from 0x200.
+     */
+    public void restart() {
+        Arrays.fill(V, (byte) 0);
+        Arrays.fill(stack, 0);
+        Arrays.fill(display, 0L);
+        hires = false;
+        planes = 1;
+        markDisplayDirty();
+        Arrays.fill(keys, false);
+        I = pc = PROGRAM_START;
+        sp = delayTimer = soundTimer = 0;
+        waitingForKeyPress = false;
+        keyRegister = 0;
+        waitKey = -1;
+        cycles = 0;
+        Arrays.fill(audioPattern, (byte) 0);
+        audioPatternLoaded = false;
+        pitch = 64;
+        audioChanged();
+        changes++;
+    }
+
+    /**
+     * Loads a validated ROM and switches to its quirks profile. Its instructions were decoded by the pre-pass, so
+     * they go straight into the cache.
+     */
+    public void loadROM(Chip8Rom rom) {
+        quirks = rom.quirks();
+        growMemory(memorySize(quirks, rom.size()));
+        reset();
+        rom.copyTo(memory, decoded);
+    }
+
+    /**
+     * Loads raw ROM bytes, keeping the current quirks profile.
+     */
+    public void loadROM(byte[] data) {
+        growMemory(memorySize(quirks, data.length));
+        if (data.length + PROGRAM_START > memory.length) {
+            throw new IllegalArgumentException("ROM file is too large");
+        }
+        reset();
+        System.arraycopy(data, 0, memory, PROGRAM_START, data.length);
+        invalidate(PROGRAM_START, data.length);
+    }
+
+    /**
+     * Presses key {@code k}. Like {@link #keyUp(int)}, this changes machine state and must be called by the thread
+     * running the core; other threads should go through a {@link Chip8Input} queue.
+     */
+    public void keyDown(int k) {
+        if (recorder != null) {
+            recorder.key(k, true, cycles);
+        }
+        keys[k] = true;
+        changes++;
+        if (waitingForKeyPress && waitKey < 0) {
+            waitKey = k;
+        }
+    }
+
+    /**
+     * Releases key {@code k}. As on the COSMAC VIP, a pending FX0A stores the key and continues only once a key
+     * pressed during the wait is released.
+     */
+    public void keyUp(int k) {
+        if (recorder != null) {
+            recorder.key(k, false, cycles);
+        }
+        keys[k] = false;
+        changes++;
+        if (waitingForKeyPress && waitKey == k) {
+            V[keyRegister] = (byte) k;
+            waitingForKeyPress = false;
+            waitKey = -1;
+            pc += 2;
+        }
+    }
+
+    public boolean isWaitingForKeyPress() {
+        return waitingForKeyPress;
+    }
+
+    /**
+     * Returns a bit mask of the display rows changed by 00E0 or DXYN since the last call, and clears it.
+     */
+    public long takeDirtyRows() {
+        long rows = dirtyRows;
+        dirtyRows = 0;
+        return rows;
+    }
+
+    void markDisplayDirty() {
+        dirtyRows = hires ? -1L : (1L << HEIGHT) - 1;
+    }
+
+    /**
+     * Index in {@link #display} of the first word of row {@code y} of {@code plane}.
+     */
+    static int row(int plane, int y) {
+        return (plane * HIRES_HEIGHT + y) * ROW_WORDS;
+    }
+
+    public boolean isHighResolution() {
+        return hires;
+    }
+
+    public int getWidth() {
+        return hires ? HIRES_WIDTH : WIDTH;
+    }
+
+    public int getHeight() {
+        return hires ? HIRES_HEIGHT : HEIGHT;
+    }
+
+    public boolean getPixel(int x, int y) {
+        return getColor(x, y) != 0;
+    }
+
+    /**
+     * Returns the pixel at (x, y) in the current resolution as a palette index: bit {@code p} is set when the pixel
+     * is on in plane {@code p}.
+     */
+    public int getColor(int x, int y) {
+        int color = 0;
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((display[row(plane, y) + (x >> 6)] << x) < 0) {
+                color |= 1 << plane;
+            }
+        }
+        return color;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Executes up to {@code n} instructions, stopping early when the program blocks on FX0A or an armed
+     * {@link Chip8Breakpoints} stops it.
+     *
+     * @return the number of instructions executed
+     */
+    public int runCycles(int n) {
+        int executed;
+        if (breakpoints != null) {
+            executed = breakpoints.run(n);
+        } else if (jit != null) {
+            executed = jit.run(n);
+        } else {
+            executed = 0;
+            while (executed < n && !waitingForKeyPress) {
+                emulateCycle();
+                executed++;
+            }
+        }
+        if (metrics != null) {
+            metrics.instructions += executed;
+        }
+        return executed;
+    }
+
+    /**
+     * Runs frames of {@code cyclesPerFrame} instructions, ticking the timers in emulated time, until {@code cycles}
+     * instructions have executed, the program blocks on FX0A or a breakpoint stops the core.
+     *
+     * @return the number of instructions executed
+     */
+    public long runFor(long cycles, int cyclesPerFrame) {
+        long executed = 0;
+        while (executed < cycles && !waitingForKeyPress) {
+            int frame = runFrame((int) Math.min(cyclesPerFrame, cycles - executed));
+            if (frame == 0 && isStopped()) {
+                break;
+            }
+            executed += frame;
+        }
+        return executed;
+    }
+
+    /**
+     * Runs one 60 Hz frame: {@code cyclesPerFrame} instructions, a timer tick and a present to the display sink. While
+     * the core is stopped at a breakpoint the timers do not tick, and the display is only presented for the frame
+     * that ran up to the stop.
+     */
+    public int runFrame(int cyclesPerFrame) {
+        int executed = runCycles(cyclesPerFrame);
+        if (!isStopped()) {
+            tickTimers();
+        } else if (executed == 0) {
+            return 0;
+        }
+        present();
+        return executed;
+    }
+
+    public void present() {
+        displaySink.present(this);
+    }
+
+    public void tickTimers() {
+        if (recorder != null) {
+            recorder.tick(cycles);
+        }
+        if (metrics != null) {
+            metrics.timerTicks++;
+        }
+        if (delayTimer > 0) {
+            delayTimer--;
+        }
+        soundSink.tick(soundTimer);
+        if (soundTimer > 0) {
+            soundTimer--;
+        }
+    }
+
+    /**
+     * The memory a core needs for {@code quirks} and a ROM of {@code romSize} bytes: 64 KB for a profile with
+     * {@link Chip8Quirks#longLoad()} or a ROM that does not fit below 4 KB, which only XO-CHIP programs are, and
+     * 4 KB otherwise. Everything sized per address (decodes, compiled blocks, profiler counters, fuzzer coverage,
+     * snapshots and rewind keyframes) follows, so classic machines stay small.
+     */
+    static int memorySize(Chip8Quirks quirks, int romSize) {
+        return quirks.longLoad() || PROGRAM_START + romSize > MEMORY_SIZE ? LONG_MEMORY_SIZE : MEMORY_SIZE;
+    }
+
+    /**
+     * Grows memory to {@code size} bytes, keeping its contents, and the recompiler's and an attached profiler's
+     * per-address tables with it. Cached decodes are dropped, since the ones next to the old end looked past it.
+     */
+    void growMemory(int size) {
+        if (size <= memory.length) {
+            return;
+        }
+        flushCounts();
+        memory = Arrays.copyOf(memory, size);
+        decoded = new int[size];
+        if (jit != null) {
+            jit = new Chip8Jit(this);
+        }
+        if (profiler != null) {
+            profiler.grow(size);
+            addressCounts = profiler.executions;
+        }
+        changes++;
+    }
+
+    /**
+     * Drops cached decodes overlapping {@code length} bytes written at {@code address}. Anything that writes to
+     * memory outside of the interpreter (ROM loading, debugger edits, state restores) must call this. A decode
+     * depends on up to four bytes (the instruction and the word after it, see {@link Chip8Decoder}), so the three
+     * addresses before the write are dropped too.
+     */
+    public void invalidate(int address, int length) {
+        int from = Math.max(0, address - 3);
+        int to = Math.min(decoded.length, address + length);
+        if (from < to) {
+            Arrays.fill(decoded, from, to, 0);
+            if (jit != null) {
+                jit.invalidate(from, to);
+            }
+        }
+    }
+
+    /**
+     * Returns the packed {@link Chip8Decoder} value for the instruction at {@code address}, decoding it if needed.
+     */
+    int decodedAt(int address) {
+        int d = decoded[address];
+        return d != 0 ? d : decode(address);
+    }
+
+    private int decode(int address) {
+        if (address < 0 || address + 1 >= memory.length) {
+            throw new IllegalStateException("PC out of range: " + address);
+        }
+        int next = address + 3 < memory.length ? ((memory[address + 2] & 0xFF) << 8) | (memory[address + 3] & 0xFF) : 0;
+        int d = Chip8Decoder.decode(((memory[address] & 0xFF) << 8) | (memory[address + 1] & 0xFF), next, quirks);
+        decoded[address] = d;
+        return d;
+    }
+
+    public void emulateCycle() {
+        int d = decoded[pc];
+        if (d == 0) {
+            d = decode(pc);
+        }
+        int x = (d >> 8) & 0xF;
+        int y = (d >> 4) & 0xF;
+
+        long[] counts = opcodeCounts;
+        if (counts != null) {
+            counts[d >>> 16]++;
+        }
+        long[] executions = addressCounts;
+        if (executions != null) {
+            executions[pc]++;
+        }
+
+        pc += 2;
+        cycles++;
+
+        switch (d >>> 16) {
+            case Chip8Decoder.OP_CLS:
+                clearScreen();
+                break;
+            case Chip8Decoder.OP_RET:
+                pc = ret();
+                break;
+            case Chip8Decoder.OP_JP:
+                pc = d & 0xFFF;
+                break;
+            case Chip8Decoder.OP_CALL:
+                pc = call(pc, d & 0xFFF);
+                break;
+            case Chip8Decoder.OP_SE_VX_KK:
+                if (V[x] == (byte) d)
+                    pc += 2;
+                break;
+            case Chip8Decoder.OP_SNE_VX_KK:
+                if (V[x] != (byte) d)
+                    pc += 2;
+                break;
+            case Chip8Decoder.OP_SE_VX_VY:
+                if (V[x] == V[y])
+                    pc += 2;
+                break;
+            case Chip8Decoder.OP_LD_VX_KK:
+                V[x] = (byte) d;
+                break;
+            case Chip8Decoder.OP_ADD_VX_KK:
+                V[x] += (byte) d;
+                break;
+            case Chip8Decoder.OP_LD_VX_VY:
+                V[x] = V[y];
+                break;
+            case Chip8Decoder.OP_OR:
+                V[x] |= V[y];
+                break;
+            case Chip8Decoder.OP_AND:
+                V[x] &= V[y];
+                break;
+            case Chip8Decoder.OP_XOR:
+                V[x] ^= V[y];
+                break;
+            case Chip8Decoder.OP_ADD_VX_VY: {
+                int sum = (V[x] & 0xFF) + (V[y] & 0xFF);
+                V[0xF] = (byte) (sum > 255 ? 1 : 0);
+                V[x] = (byte) sum;
+                break;
+            }
+            case Chip8Decoder.OP_SUB:
+                V[0xF] = (byte) ((V[x] & 0xFF) >= (V[y] & 0xFF) ? 1 : 0);
+                V[x] -= V[y];
+                break;
+            case Chip8Decoder.OP_SHR:
+                V[0xF] = (byte) (V[x] & 1);
+                V[x] = (byte) ((V[x] & 0xFF) >>> 1);
+                break;
+            case Chip8Decoder.OP_SUBN:
+                V[0xF] = (byte) ((V[y] & 0xFF) >= (V[x] & 0xFF) ? 1 : 0);
+                V[x] = (byte) (V[y] - V[x]);
+                break;
+            case Chip8Decoder.OP_SHL:
+                V[0xF] = (byte) ((V[x] & 0x80) >>> 7);
+                V[x] = (byte) ((V[x] & 0xFF) << 1);
+                break;
+            case Chip8Decoder.OP_SNE_VX_VY:
+                if (V[x] != V[y])
+                    pc += 2;
+                break;
+            case Chip8Decoder.OP_LD_I:
+                I = d & 0xFFF;
+                break;
+            case Chip8Decoder.OP_JP_V0:
+                pc = (d & 0xFFF) + (V[0] & 0xFF);
+                break;
+            case Chip8Decoder.OP_RND:
+                V[x] = (byte) (randomByte() & d);
+                break;
+            case Chip8Decoder.OP_DRW:
+                drawSprite(x, y, d & 0xF);
+                break;
+            case Chip8Decoder.OP_SKP:
+                if (keys[V[x] & 0xF])
+                    pc += 2;
+                break;
+            case Chip8Decoder.OP_SKNP:
+                if (!keys[V[x] & 0xF])
+                    pc += 2;
+                break;
+            case Chip8Decoder.OP_LD_VX_DT:
+                V[x] = (byte) delayTimer;
+                break;
+            case Chip8Decoder.OP_LD_VX_K:
+                waitingForKeyPress = true;
+                keyRegister = x;
+                waitKey = -1;
+                pc -= 2;
+                break;
+            case Chip8Decoder.OP_LD_DT:
+                delayTimer = V[x] & 0xFF;
+                break;
+            case Chip8Decoder.OP_LD_ST:
+                soundTimer = V[x] & 0xFF;
+                break;
+            case Chip8Decoder.OP_ADD_I:
+                I += V[x] & 0xFF;
+                break;
+            case Chip8Decoder.OP_LD_F:
+                I = FONTSET_START + ((V[x] & 0xF) * 5);
+                break;
+            case Chip8Decoder.OP_BCD:
+                storeBcd(x);
+                break;
+            case Chip8Decoder.OP_STORE:
+                storeRegisters(x);
+                break;
+            case Chip8Decoder.OP_LOAD:
+                loadRegisters(x);
+                break;
+            case Chip8Decoder.OP_OR_VF:
+                V[x] |= V[y];
+                V[0xF] = 0;
+                break;
+            case Chip8Decoder.OP_AND_VF:
+                V[x] &= V[y];
+                V[0xF] = 0;
+                break;
+            case Chip8Decoder.OP_XOR_VF:
+                V[x] ^= V[y];
+                V[0xF] = 0;
+                break;
+            case Chip8Decoder.OP_SHR_VY: {
+                int value = V[y] & 0xFF;
+                V[x] = (byte) (value >>> 1);
+                V[0xF] = (byte) (value & 1);
+                break;
+            }
+            case Chip8Decoder.OP_SHL_VY: {
+                int value = V[y] & 0xFF;
+                V[x] = (byte) (value << 1);
+                V[0xF] = (byte) (value >>> 7);
+                break;
+            }
+            case Chip8Decoder.OP_JP_VX:
+                pc = (d & 0xFFF) + (V[x] & 0xFF);
+                break;
+            case Chip8Decoder.OP_DRW_CLIP:
+                clipSprite(x, y, d & 0xF);
+                break;
+            case Chip8Decoder.OP_STORE_KEEP_I:
+                writeRegisters(x);
+                break;
+            case Chip8Decoder.OP_LOAD_KEEP_I:
+                readRegisters(x);
+                break;
+            case Chip8Decoder.OP_SCD:
+                scrollDown(d & 0xF);
+                break;
+            case Chip8Decoder.OP_SCU:
+                scrollUp(d & 0xF);
+                break;
+            case Chip8Decoder.OP_SCR:
+                scrollRight();
+                break;
+            case Chip8Decoder.OP_SCL:
+                scrollLeft();
+                break;
+            case Chip8Decoder.OP_EXIT:
+                pc -= 2;
+                break;
+            case Chip8Decoder.OP_LOW:
+                setResolution(false);
+                break;
+            case Chip8Decoder.OP_HIGH:
+                setResolution(true);
+                break;
+            case Chip8Decoder.OP_SAVE_RANGE:
+                saveRange(x, y);
+                break;
+            case Chip8Decoder.OP_LOAD_RANGE:
+                loadRange(x, y);
+                break;
+            case Chip8Decoder.OP_LD_I_LONG:
+                I = d & 0xFFFF;
+                pc += 2;
+                break;
+            case Chip8Decoder.OP_PLANE:
+                selectPlanes(x);
+                break;
+            case Chip8Decoder.OP_AUDIO:
+                loadAudioPattern();
+                break;
+            case Chip8Decoder.OP_LD_HF:
+                I = BIG_FONTSET_START + (V[x] & 0xF) * 10;
+                break;
+            case Chip8Decoder.OP_PITCH:
+                setPitch(x);
+                break;
+            case Chip8Decoder.OP_STORE_FLAGS:
+                storeFlags(x);
+                break;
+            case Chip8Decoder.OP_LOAD_FLAGS:
+                loadFlags(x);
+                break;
+            case Chip8Decoder.OP_SE_VX_KK_LONG:
+                if (V[x] == (byte) d)
+                    pc += 4;
+                break;
+            case Chip8Decoder.OP_SNE_VX_KK_LONG:
+                if (V[x] != (byte) d)
+                    pc += 4;
+                break;
+            case Chip8Decoder.OP_SE_VX_VY_LONG:
+                if (V[x] == V[y])
+                    pc += 4;
+                break;
+            case Chip8Decoder.OP_SNE_VX_VY_LONG:
+                if (V[x] != V[y])
+                    pc += 4;
+                break;
+            case Chip8Decoder.OP_SKP_LONG:
+                if (keys[V[x] & 0xF])
+                    pc += 4;
+                break;
+            case Chip8Decoder.OP_SKNP_LONG:
+                if (!keys[V[x] & 0xF])
+                    pc += 4;
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Instruction bodies shared by the interpreter and the code emitted by Chip8Jit.
+
+    void clearScreen() {
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((planes & (1 << plane)) != 0) {
+                Arrays.fill(display, plane * PLANE_WORDS, (plane + 1) * PLANE_WORDS, 0L);
+            }
+        }
+        markDisplayDirty();
+    }
+
+    /**
+     * 00FE and 00FF. Switching resolution clears every plane, as XO-CHIP does.
+     */
+    void setResolution(boolean hires) {
+        this.hires = hires;
+        Arrays.fill(display, 0L);
+        markDisplayDirty();
+    }
+
+    int call(int returnAddress, int target) {
+        stack[sp++] = returnAddress;
+        if (profiler != null) {
+            profiler.call(returnAddress - 2, target, sp - 1, cycles);
+        }
+        return target;
+    }
+
+    int ret() {
+        sp--;
+        int address = stack[sp];
+        if (profiler != null) {
+            profiler.ret(sp, cycles);
+        }
+        return address;
+    }
+
+    /**
+     * Returns 0..254 like the original {@code (int) (Math.random() * 0xFF)}, from a per-core xorshift64* generator.
+     */
+    int randomByte() {
+        long x = rngState;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        rngState = x;
+        return (int) ((((x * 0x2545F4914F6CDD1DL) >>> 40) * 0xFF) >>> 24);
+    }
+
+    /**
+     * XORs a sprite into every selected plane, wrapping it around the screen edges. N = 0 draws a 16x16 sprite
+     * (DXY0). Each plane takes the next N (or 32) bytes from I.
+     */
+    void drawSprite(int x, int y, int n) {
+        draw(x, y, n, true);
+    }
+
+    /**
+     * Like {@link #drawSprite(int, int, int)}, but only the start position wraps: pixels past the right edge and
+     * rows past the bottom are dropped.
+     */
+    void clipSprite(int x, int y, int n) {
+        draw(x, y, n, false);
+    }
+
+    /**
+     * Each sprite row is placed at the top of a long and shifted right by the x coordinate, so a row is one XOR and
+     * one AND per word it covers: rotated within the one word of a low-resolution row, or shifted across the two
+     * words of a high-resolution row with the overflow carried back to the start when wrapping.
+     */
+    private void draw(int x, int y, int n, boolean wrap) {
+        int height = hires ? HIRES_HEIGHT : HEIGHT;
+        int px = V[x] & (hires ? HIRES_WIDTH - 1 : WIDTH - 1);
+        int py = V[y] & (height - 1);
+        int rows = n == 0 ? 16 : n;
+        int visible = wrap ? rows : Math.min(rows, height - py);
+        int address = I;
+        boolean collision = false;
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((planes & (1 << plane)) == 0) {
+                continue;
+            }
+            for (int row = 0; row < visible; row++) {
+                long bits = n == 0
+                        ? (((memory[address + row * 2] & 0xFFL) << 8) | (memory[address + row * 2 + 1] & 0xFFL)) << 48
+                        : (memory[address + row] & 0xFFL) << 56;
+                int ry = (py + row) & (height - 1);
+                int r = row(plane, ry);
+                if (!hires) {
+                    long mask = wrap ? Long.rotateRight(bits, px) : bits >>> px;
+                    collision |= (display[r] & mask) != 0;
+                    display[r] ^= mask;
+                } else {
+                    long left;
+                    long right;
+                    if (px < 64) {
+                        left = bits >>> px;
+                        right = px == 0 ? 0 : bits << (64 - px);
+                    } else {
+                        left = px == 64 || !wrap ? 0 : bits << (128 - px);
+                        right = bits >>> (px - 64);
+                    }
+                    collision |= ((display[r] & left) | (display[r + 1] & right)) != 0;
+                    display[r] ^= left;
+                    display[r + 1] ^= right;
+                }
+                dirtyRows |= 1L << ry;
+            }
+            address += n == 0 ? 32 : n;
+        }
+        V[0xF] = (byte) (collision ? 1 : 0);
+        if (profiler != null && I < memory.length) {
+            profiler.draw(I);
+        }
+    }
+
+    /**
+     * 00CN and 00DN move the selected planes by whole rows, 00FB and 00FC by four pixels. Rows move with one array
+     * copy per plane and sideways scrolls shift each row's words, carrying bits between the two words of a
+     * high-resolution row.
+     */
+    void scrollDown(int n) {
+        int words = (hires ? HIRES_HEIGHT : HEIGHT) * ROW_WORDS;
+        int shift = Math.min(n * ROW_WORDS, words);
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((planes & (1 << plane)) != 0) {
+                int base = plane * PLANE_WORDS;
+                System.arraycopy(display, base, display, base + shift, words - shift);
+                Arrays.fill(display, base, base + shift, 0L);
+            }
+        }
+        markDisplayDirty();
+    }
+
+    void scrollUp(int n) {
+        int words = (hires ? HIRES_HEIGHT : HEIGHT) * ROW_WORDS;
+        int shift = Math.min(n * ROW_WORDS, words);
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((planes & (1 << plane)) != 0) {
+                int base = plane * PLANE_WORDS;
+                System.arraycopy(display, base + shift, display, base, words - shift);
+                Arrays.fill(display, base + words - shift, base + words, 0L);
+            }
+        }
+        markDisplayDirty();
+    }
+
+    void scrollRight() {
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((planes & (1 << plane)) == 0) {
+                continue;
+            }
+            for (int r = row(plane, 0), end = row(plane, getHeight()); r < end; r += ROW_WORDS) {
+                if (hires) {
+                    display[r + 1] = (display[r + 1] >>> 4) | (display[r] << 60);
+                }
+                display[r] >>>= 4;
+            }
+        }
+        markDisplayDirty();
+    }
+
+    void scrollLeft() {
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((planes & (1 << plane)) == 0) {
+                continue;
+            }
+            for (int r = row(plane, 0), end = row(plane, getHeight()); r < end; r += ROW_WORDS) {
+                if (hires) {
+                    display[r] = (display[r] << 4) | (display[r + 1] >>> 60);
+                    display[r + 1] <<= 4;
+                } else {
+                    display[r] <<= 4;
+                }
+            }
+        }
+        markDisplayDirty();
+    }
+
+    void selectPlanes(int mask) {
+        planes = mask & ((1 << PLANES) - 1);
+    }
+
+    void storeBcd(int x) {
+        int value = V[x] & 0xFF;
+        memory[I] = (byte) (value / 100);
+        memory[I + 1] = (byte) ((value / 10) % 10);
+        memory[I + 2] = (byte) (value % 10);
+        invalidate(I, 3);
+    }
+
+    void storeRegisters(int x) {
+        writeRegisters(x);
+        I += x + 1;
+    }
+
+    void loadRegisters(int x) {
+        readRegisters(x);
+        I += x + 1;
+    }
+
+    void writeRegisters(int x) {
+        for (int i = 0; i <= x; i++)
+            memory[I + i] = V[i];
+        invalidate(I, x + 1);
+    }
+
+    void readRegisters(int x) {
+        for (int i = 0; i <= x; i++)
+            V[i] = memory[I + i];
+    }
+
+    /**
+     * 5XY2: stores VX to VY, in either direction, at I without changing I.
+     */
+    void saveRange(int x, int y) {
+        int step = x <= y ? 1 : -1;
+        int count = Math.abs(y - x) + 1;
+        for (int i = 0; i < count; i++)
+            memory[I + i] = V[x + i * step];
+        invalidate(I, count);
+    }
+
+    void loadRange(int x, int y) {
+        int step = x <= y ? 1 : -1;
+        int count = Math.abs(y - x) + 1;
+        for (int i = 0; i < count; i++)
+            V[x + i * step] = memory[I + i];
+    }
+
+    void storeFlags(int x) {
+        System.arraycopy(V, 0, flags, 0, x + 1);
+    }
+
+    void loadFlags(int x) {
+        System.arraycopy(flags, 0, V, 0, x + 1);
+    }
+
+    /**
+     * F002: copies 16 bytes at I into the audio pattern buffer.
+     */
+    void loadAudioPattern() {
+        System.arraycopy(memory, I, audioPattern, 0, audioPattern.length);
+        audioPatternLoaded = true;
+        audioChanged();
+    }
+
+    void setPitch(int x) {
+        pitch = V[x] & 0xFF;
+        audioChanged();
+    }
+
+    /**
+     * Passes the current audio pattern and pitch to the sound sink.
+     */
+    void audioChanged() {
+        soundSink.pattern(audioPatternLoaded ? audioPattern : null, pitch);
+    }
+}
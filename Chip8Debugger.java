@@ -1,53 +1,132 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
 import java.awt.*;
-import java.util.HexFormat;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
 
 public class Chip8Debugger extends JFrame {
-    private final Chip8Emulator emulator;
-    private final JTextArea memoryDisplay;
+    private static final int REFRESH_MILLIS = 1000 / Chip8Clock.FRAME_RATE;
+    private static final int PROFILE_REFRESH_TICKS = Chip8Clock.FRAME_RATE / 2;
+    private static final int PROFILE_ROWS = 20;
+    private static final int BYTES_PER_LINE = 16;
+    private static final String[] BYTE_HEX = new String[256];
+    private static final String[] BYTE_DIGITS = new String[256];
+
+    static {
+        for (int i = 0; i < BYTE_HEX.length; i++) {
+            BYTE_HEX[i] = String.format("0x%02x", i);
+            BYTE_DIGITS[i] = String.format("%02X", i);
+        }
+    }
+
+    private final Chip8Core core;
+    private final Chip8Rewind rewind;
+    private final BooleanSupplier clockPaused;
+    private final Chip8Breakpoints breakpoints;
+    private final DefaultListModel<Chip8Breakpoints.Entry> breakpointModel = new DefaultListModel<>();
+    private final JLabel hitLabel = new JLabel(" ");
+    private final JTable memoryTable;
+    private final JTable disassemblyTable;
     private final JTable registerTable;
     private final JTextArea currentInstructionDisplay;
     private final JTable stackTable;
     private final JLabel pcLabel;
+    private final JLabel rewindLabel;
+    private final JLabel metricsLabel;
     private final Timer debuggerTimer;
+    private final MemoryTableModel memoryModel;
+    private final DisassemblyTableModel disassemblyModel;
+    private final RegisterTableModel registerModel = new RegisterTableModel();
+    private final StackTableModel stackModel = new StackTableModel();
+    private final OpcodeTableModel opcodeModel = new OpcodeTableModel();
+    private final Chip8Profiler profiler;
+    private final ProfileTableModel hotAddressModel = new ProfileTableModel("Address", "Executions");
+    private final ProfileTableModel subroutineModel = new ProfileTableModel("Subroutine", "Calls", "Instructions");
+    private final Sample published = new Sample();
+    private final Sample view = new Sample();
+    private final RowRange memoryRequest = new RowRange();
+    private final RowRange disassemblyRequest = new RowRange();
+    private final RowRange memoryRows = new RowRange();
+    private final RowRange disassemblyRows = new RowRange();
+    private final Rectangle visibleRect = new Rectangle();
+    private final Point corner = new Point();
+    private volatile boolean live;
+    private boolean profileDue;
+    private List<Chip8Profiler.Hotspot> publishedHotspots;
+    private List<Chip8Profiler.Subroutine> publishedSubroutines;
+    private int profileTicks;
+    private int shownPc = -1;
+    private int shownOpcode = -1;
+    private int shownRewindFrames = -1;
+    private long shownRewindBytes = -1;
+    private String shownMetrics = "";
 
     public Chip8Debugger(Chip8Emulator emulator) {
-        this.emulator = emulator;
+        this(emulator.core, emulator.rewind, emulator::isClockPaused, emulator.breakpoints);
+        emulator.setFrameListener(this::publish);
+    }
+
+    /**
+     * @param clockPaused whether the clock has stopped running frames, so that nothing calls {@link #publish()} and
+     *        the window copies the core itself
+     */
+    Chip8Debugger(Chip8Core core, Chip8Rewind rewind, BooleanSupplier clockPaused) {
+        this(core, rewind, clockPaused, new Chip8Breakpoints(core));
+    }
+
+    Chip8Debugger(Chip8Core core, Chip8Rewind rewind, BooleanSupplier clockPaused, Chip8Breakpoints breakpoints) {
+        this.core = core;
+        this.rewind = rewind;
+        this.clockPaused = clockPaused;
+        this.breakpoints = breakpoints;
+        this.memoryModel = new MemoryTableModel();
+        this.disassemblyModel = new DisassemblyTableModel();
+        this.profiler = new Chip8Profiler(core);
         setTitle("CHIP-8 Debugger Window");
-        setSize(1300, 600);
+        setSize(1300, 800);
         setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 
         JPanel mainPanel = new JPanel(new BorderLayout());
 
-        JPanel topPanel = new JPanel(new GridLayout(3, 1));
+        JPanel topPanel = new JPanel(new GridLayout(4, 1));
         pcLabel = new JLabel("PC: 0x000");
         currentInstructionDisplay = new JTextArea("Current Instruction: ");
         currentInstructionDisplay.setEditable(false);
         currentInstructionDisplay.setFont(new Font("Monospaced", Font.PLAIN, 12));
 
+        rewindLabel = new JLabel("Rewind: 0 frames");
+        metricsLabel = new JLabel();
+
         topPanel.add(pcLabel);
         topPanel.add(new JScrollPane(currentInstructionDisplay));
+        topPanel.add(rewindLabel);
+        topPanel.add(metricsLabel);
 
         mainPanel.add(topPanel, BorderLayout.NORTH);
 
-        JPanel centerPanel = new JPanel(new GridLayout(1, 3));
+        JPanel centerPanel = new JPanel(new GridLayout(1, 5));
 
-        memoryDisplay = new JTextArea();
-        memoryDisplay.setEditable(false);
-        memoryDisplay.setFont(new Font("Monospaced", Font.PLAIN, 12));
-
-        JScrollPane memoryScrollPane = new JScrollPane(memoryDisplay);
+        memoryTable = new JTable(memoryModel);
+        memoryTable.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        memoryTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        memoryTable.getColumnModel().getColumn(0).setPreferredWidth(56);
+        for (int column = 1; column <= BYTES_PER_LINE; column++) {
+            memoryTable.getColumnModel().getColumn(column).setPreferredWidth(24);
+        }
+        JScrollPane memoryScrollPane = new JScrollPane(memoryTable);
         memoryScrollPane.setBorder(BorderFactory.createTitledBorder("Memory"));
         centerPanel.add(memoryScrollPane);
 
-        String[] registerColumns = { "Register", "Value" };
-        DefaultTableModel registerModel = new DefaultTableModel(registerColumns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        disassemblyTable = new JTable(disassemblyModel);
+        disassemblyTable.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        disassemblyTable.getColumnModel().getColumn(0).setPreferredWidth(60);
+        disassemblyTable.getColumnModel().getColumn(1).setPreferredWidth(50);
+        disassemblyTable.getColumnModel().getColumn(2).setPreferredWidth(140);
+        JScrollPane disassemblyScrollPane = new JScrollPane(disassemblyTable);
+        disassemblyScrollPane.setBorder(BorderFactory.createTitledBorder("Disassembly"));
+        centerPanel.add(disassemblyScrollPane);
 
         registerTable = new JTable(registerModel);
         registerTable.setFont(new Font("Monospaced", Font.PLAIN, 12));
@@ -56,81 +135,822 @@ public class Chip8Debugger extends JFrame {
         registerScrollPane.setBorder(BorderFactory.createTitledBorder("Registers (V0-VF)"));
         centerPanel.add(registerScrollPane);
 
-        String[] stackColumns = {"Index", "Address"};
-        DefaultTableModel stackModel = new DefaultTableModel(stackColumns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
         stackTable = new JTable(stackModel);
         stackTable.setFont(new Font("Monospaced", Font.PLAIN, 12));
         JScrollPane stackScrollPane = new JScrollPane(stackTable);
         stackScrollPane.setBorder(BorderFactory.createTitledBorder("Stack"));
         centerPanel.add(stackScrollPane);
 
+        JTable opcodeTable = new JTable(opcodeModel);
+        opcodeTable.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        JScrollPane opcodeScrollPane = new JScrollPane(opcodeTable);
+        opcodeScrollPane.setBorder(BorderFactory.createTitledBorder("Opcodes"));
+        centerPanel.add(opcodeScrollPane);
+
         mainPanel.add(centerPanel, BorderLayout.CENTER);
+        JPanel southPanel = new JPanel(new GridLayout(1, 2));
+        southPanel.add(createProfilerPanel());
+        southPanel.add(createBreakpointPanel());
+        mainPanel.add(southPanel, BorderLayout.SOUTH);
 
         add(mainPanel);
         setLocationRelativeTo(null);
         setVisible(false);
 
-        debuggerTimer = new Timer(0, _ -> updateDebugger());
+        debuggerTimer = new Timer(REFRESH_MILLIS, _ -> {
+            live = isShowing();
+            if (live) {
+                refresh(clockPaused.getAsBoolean());
+            }
+        });
         debuggerTimer.start();
     }
 
-    public void updateDebugger() {
-        if (emulator.isPaused) {
+    /**
+     * Copies what the window shows out of the core into preallocated buffers. The emulator calls this after every
+     * frame, on the clock thread while holding the core's monitor, so the periodic refresh on the event dispatch
+     * thread only takes the short lock around those buffers and never waits for a frame to finish. While the clock
+     * is paused the monitor is free, and the refresh takes the copy itself.
+     */
+    void publish() {
+        if (!live) {
             return;
         }
-        byte[] memory = this.emulator.memory;
-        int pc = this.emulator.pc;
-        StringBuilder sb = new StringBuilder();
-        HexFormat hex = HexFormat.of().withPrefix("0x");
-
-        for (int i = 0; i <= memory.length - 1; i += 16) {
-            sb.append("0x" + (hex.formatHex(new byte[] {(byte) (i >> 8), (byte) i})).toString().replace("0x", "")).append(": ");
-            for (int j = 0; j < 16; j++) {
-                if (i + j < memory.length) {
-                    int val = memory[i + j] & 0xFF;
-                    sb.append(String.format("%02X", val)).append(" ");
-                } else {
-                    sb.append("   ");
+        synchronized (published) {
+            capture();
+        }
+    }
+
+    /**
+     * Must be called while holding both the core's monitor and {@link #published}'s.
+     */
+    private void capture() {
+        published.capture(core, memoryRequest, disassemblyRequest);
+        if (profileDue && core.getProfiler() == profiler) {
+            profileDue = false;
+            publishedHotspots = profiler.hotAddresses(PROFILE_ROWS);
+            publishedSubroutines = profiler.hotSubroutines(PROFILE_ROWS);
+        }
+    }
+
+    /**
+     * Brings the window up to date with the core right away, taking the core's monitor. Meant for single steps while
+     * the clock is paused; while it runs, the window refreshes itself from what {@link #publish()} copied.
+     */
+    public void updateDebugger() {
+        refresh(true);
+    }
+
+    /**
+     * Shows where the core stopped and refreshes the window, even though the clock is paused by then.
+     */
+    public void showHit(Chip8Breakpoints.Hit hit) {
+        hitLabel.setText("Stopped: " + hit);
+        refresh(true);
+    }
+
+    /**
+     * Updates the tables from the latest copy of the core, or from a new one taken now if {@code capture} is set.
+     * Only memory lines, registers and stack entries that differ from what is already shown are touched, so apart
+     * from the metrics line a refresh with no changes does not allocate.
+     */
+    private void refresh(boolean capture) {
+        visibleRows(memoryTable, memoryRows);
+        visibleRows(disassemblyTable, disassemblyRows);
+        boolean profile = ++profileTicks >= PROFILE_REFRESH_TICKS;
+        if (profile) {
+            profileTicks = 0;
+        }
+        List<Chip8Profiler.Hotspot> hotspots;
+        List<Chip8Profiler.Subroutine> subroutines;
+        synchronized (published) {
+            memoryRequest.set(memoryRows);
+            disassemblyRequest.set(disassemblyRows);
+            profileDue |= profile;
+        }
+        if (capture) {
+            synchronized (core) {
+                synchronized (published) {
+                    capture();
                 }
             }
-            sb.append("\n");
         }
-        memoryDisplay.setText(sb.toString());
-        memoryDisplay.setCaretPosition(0);
+        synchronized (published) {
+            view.copyFrom(published);
+            hotspots = publishedHotspots;
+            subroutines = publishedSubroutines;
+            publishedHotspots = null;
+            publishedSubroutines = null;
+        }
+
+        memoryModel.update(view.memorySize, view.memoryRows, view.memoryBytes);
+        registerModel.update(view.v, view.i);
+        stackModel.update(view.stack, view.sp);
+        updateRewind(rewind);
+        updateMetrics(view);
+        if (hotspots != null) {
+            showProfile(hotspots, subroutines);
+        }
+
+        int pc = view.pc;
+        disassemblyModel.update(view.memorySize, pc, view.disassemblyRows, view.words, view.quirks);
+        if (pc != shownPc) {
+            shownPc = pc;
+            pcLabel.setText("PC: " + String.format("0x%03x", pc));
+            int row = disassemblyModel.rowOf(pc);
+            if (disassemblyTable.isShowing() && (row < disassemblyRows.first || row > disassemblyRows.last)) {
+                disassemblyTable.scrollRectToVisible(disassemblyTable.getCellRect(row, 0, true));
+            }
+        }
 
-        byte[] V = this.emulator.V;
-        DefaultTableModel registerModel = (DefaultTableModel) registerTable.getModel();
-        registerModel.setRowCount(0);
+        int opcode = view.opcode;
+        if (opcode >= 0 && opcode != shownOpcode) {
+            shownOpcode = opcode;
+            currentInstructionDisplay.setText("Current Instruction: " + String.format("0x%04X  ", opcode)
+                    + disassemblyModel.disassemble(pc, view.pcWords));
+        }
+    }
 
-        for (int i = 0; i < V.length; i++) {
-            registerModel.addRow(new Object[] {"V" + Integer.toHexString(i).toUpperCase(),hex.formatHex(new byte[] {V[i]})});
+    /**
+     * Sets {@code range} to the first and last row of {@code table} inside its viewport, or to an empty range while
+     * it is not on screen.
+     */
+    private void visibleRows(JTable table, RowRange range) {
+        table.computeVisibleRect(visibleRect);
+        corner.setLocation(visibleRect.x, visibleRect.y);
+        int first = table.rowAtPoint(corner);
+        if (visibleRect.isEmpty() || first < 0) {
+            range.set(0, -1);
+            return;
         }
+        corner.setLocation(visibleRect.x, visibleRect.y + visibleRect.height - 1);
+        int last = table.rowAtPoint(corner);
+        range.set(first, last < 0 ? table.getRowCount() - 1 : last);
+    }
 
-        int I = this.emulator.I;
-        registerModel.addRow(new Object[] {"I", hex.formatHex(new byte[] {(byte) I})});
+    private void updateRewind(Chip8Rewind rewind) {
+        int frames = rewind.getFrameCount();
+        long bytes = rewind.getMemoryUsage();
+        if (frames != shownRewindFrames || bytes != shownRewindBytes) {
+            shownRewindFrames = frames;
+            shownRewindBytes = bytes;
+            rewindLabel.setText(String.format("Rewind: %d/%d frames, %d KB", frames, rewind.getCapacity(), bytes / 1024));
+        }
+    }
+
+    private JPanel createProfilerPanel() {
+        JCheckBox profileBox = new JCheckBox("Profile");
+        JButton resetButton = new JButton("Reset");
+        JButton exportButton = new JButton("Export...");
+        profileBox.addActionListener(_ -> {
+            profiler.setEnabled(profileBox.isSelected());
+            updateProfile();
+        });
+        resetButton.addActionListener(_ -> {
+            profiler.reset();
+            updateProfile();
+        });
+        exportButton.addActionListener(_ -> exportProfile());
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttons.add(profileBox);
+        buttons.add(resetButton);
+        buttons.add(exportButton);
+
+        JTable hotAddressTable = new JTable(hotAddressModel);
+        hotAddressTable.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        JTable subroutineTable = new JTable(subroutineModel);
+        subroutineTable.setFont(new Font("Monospaced", Font.PLAIN, 12));
+
+        JPanel tables = new JPanel(new GridLayout(1, 2));
+        tables.add(new JScrollPane(hotAddressTable));
+        tables.add(new JScrollPane(subroutineTable));
+        tables.setPreferredSize(new Dimension(0, 180));
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(BorderFactory.createTitledBorder("Profiler"));
+        panel.add(buttons, BorderLayout.NORTH);
+        panel.add(tables, BorderLayout.CENTER);
+        return panel;
+    }
+
+    private JPanel createBreakpointPanel() {
+        JTextField entryField = new JTextField(14);
+        entryField.setToolTipText("0x2A0 breaks at an address, r/w/rw 0x300-0x30F watches memory, V3 == 0x10 breaks on a condition");
+        JButton addButton = new JButton("Add");
+        JButton removeButton = new JButton("Remove");
+        JCheckBox traceBox = new JCheckBox("Trace");
+        JButton dumpButton = new JButton("Dump Trace...");
+        JList<Chip8Breakpoints.Entry> entryList = new JList<>(breakpointModel);
+        entryList.setFont(new Font("Monospaced", Font.PLAIN, 12));
+
+        Runnable add = () -> {
+            try {
+                Chip8Breakpoints.Entry entry = Chip8Breakpoints.parse(entryField.getText());
+                breakpoints.add(entry);
+                if (!breakpointModel.contains(entry)) {
+                    breakpointModel.addElement(entry);
+                }
+                entryField.setText("");
+            } catch (IllegalArgumentException e) {
+                JOptionPane.showMessageDialog(this, "Invalid entry: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        };
+        entryField.addActionListener(_ -> add.run());
+        addButton.addActionListener(_ -> add.run());
+        removeButton.addActionListener(_ -> {
+            for (Chip8Breakpoints.Entry entry : entryList.getSelectedValuesList()) {
+                breakpoints.remove(entry);
+                breakpointModel.removeElement(entry);
+            }
+        });
+        traceBox.addActionListener(_ -> breakpoints.setTracing(traceBox.isSelected(), Chip8Breakpoints.DEFAULT_TRACE_CAPACITY));
+        dumpButton.addActionListener(_ -> dumpTrace());
 
-        pcLabel.setText("PC: " + hex.formatHex(new byte[] { (byte) (pc & 0xFFF) }));
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttons.add(entryField);
+        buttons.add(addButton);
+        buttons.add(removeButton);
+        buttons.add(traceBox);
+        buttons.add(dumpButton);
 
-        int opcode = 0;
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(BorderFactory.createTitledBorder("Breakpoints"));
+        panel.add(buttons, BorderLayout.NORTH);
+        panel.add(new JScrollPane(entryList), BorderLayout.CENTER);
+        panel.add(hitLabel, BorderLayout.SOUTH);
+        return panel;
+    }
+
+    private void dumpTrace() {
+        if (!breakpoints.isTracing()) {
+            JOptionPane.showMessageDialog(this, "Tick Trace first.", "Trace", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Dump Trace");
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
         try {
-            opcode = (memory[pc] << 8) | (memory[pc + 1] & 0xFFF);
-        } catch (Exception e) {
+            breakpoints.writeTrace(chooser.getSelectedFile().toPath());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error dumping trace: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void updateProfile() {
+        showProfile(profiler.hotAddresses(PROFILE_ROWS), profiler.hotSubroutines(PROFILE_ROWS));
+    }
+
+    private void showProfile(List<Chip8Profiler.Hotspot> hotspots, List<Chip8Profiler.Subroutine> subroutines) {
+        Object[][] hotRows = new Object[hotspots.size()][];
+        for (int i = 0; i < hotRows.length; i++) {
+            hotRows[i] = new Object[] { address(hotspots.get(i).address()), hotspots.get(i).executions() };
+        }
+        hotAddressModel.update(hotRows);
+
+        Object[][] subroutineRows = new Object[subroutines.size()][];
+        for (int i = 0; i < subroutineRows.length; i++) {
+            Chip8Profiler.Subroutine subroutine = subroutines.get(i);
+            subroutineRows[i] = new Object[] { address(subroutine.address()), subroutine.calls(), subroutine.instructions() };
+        }
+        subroutineModel.update(subroutineRows);
+    }
+
+    private void exportProfile() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export Profile");
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
             return;
         }
+        try {
+            profiler.export(chooser.getSelectedFile().toPath());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error exporting profile: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void updateMetrics(Sample sample) {
+        Chip8Metrics metrics = sample.metrics;
+        String text;
+        if (metrics == null) {
+            text = "Metrics: off (Debug > Collect Metrics)";
+        } else {
+            text = String.format("Metrics: %.0f IPS, %d timer ticks, %d frames presented, %d skipped, %d painted, "
+                            + "CPU %.3f ms/frame, paint %.3f ms/frame",
+                    sample.instructionsPerSecond, sample.timerTicks, sample.framesPresented, sample.framesSkipped,
+                    metrics.getFramesPainted(), sample.cpuMillisPerFrame, metrics.getPaintMillisPerFrame());
+            opcodeModel.update(sample.opcodes);
+        }
+        if (!text.equals(shownMetrics)) {
+            shownMetrics = text;
+            metricsLabel.setText(text);
+        }
+    }
+
+    private static String address(int value) {
+        return String.format("0x%03x", value);
+    }
+
+    private static int word(byte[] memory, int address) {
+        return address + 1 < memory.length ? ((memory[address] & 0xFF) << 8) | (memory[address + 1] & 0xFF) : 0;
+    }
+
+    /**
+     * A range of table rows, reused across refreshes. Empty when {@code first} is greater than {@code last}.
+     */
+    private static final class RowRange {
+        int first;
+        int last = -1;
+
+        void set(int first, int last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        void set(RowRange range) {
+            set(range.first, range.last);
+        }
+
+        int count() {
+            return Math.max(0, last - first + 1);
+        }
+    }
+
+    /**
+     * The part of the core the window shows: registers, stack, the memory lines and instruction words in view, and
+     * the metrics counters. Buffers grow with the visible row ranges and are reused from then on.
+     */
+    private static final class Sample {
+        final byte[] v = new byte[16];
+        final int[] stack = new int[16];
+        final long[] opcodes = new long[Chip8Decoder.OP_COUNT];
+        final RowRange memoryRows = new RowRange();
+        final RowRange disassemblyRows = new RowRange();
+        byte[] memoryBytes = new byte[0];
+        int[] words = new int[0];
+        int memorySize;
+        int i;
+        int pc;
+        int sp;
+        int pcWords;
+        int opcode = -1;
+        Chip8Quirks quirks = Chip8Quirks.DEFAULT;
+        Chip8Metrics metrics;
+        double instructionsPerSecond;
+        long timerTicks;
+        long framesPresented;
+        long framesSkipped;
+        double cpuMillisPerFrame;
+
+        /**
+         * Must be called while holding the core's monitor.
+         */
+        void capture(Chip8Core core, RowRange memoryRequest, RowRange disassemblyRequest) {
+            byte[] memory = core.memory;
+            System.arraycopy(core.V, 0, v, 0, v.length);
+            System.arraycopy(core.stack, 0, stack, 0, stack.length);
+            i = core.I;
+            pc = core.pc;
+            sp = core.sp;
+            pcWords = pc >= 0 ? word(memory, pc) << 16 | word(memory, pc + 2) : 0;
+            opcode = pc >= 0 && pc + 1 < memory.length ? pcWords >>> 16 : -1;
+            quirks = core.getQuirks();
+            memorySize = memory.length;
+
+            memoryRows.set(memoryRequest.first, Math.min(memoryRequest.last, memory.length / BYTES_PER_LINE - 1));
+            int bytes = memoryRows.count() * BYTES_PER_LINE;
+            if (memoryBytes.length < bytes) {
+                memoryBytes = new byte[bytes];
+            }
+            System.arraycopy(memory, memoryRows.first * BYTES_PER_LINE, memoryBytes, 0, bytes);
+
+            disassemblyRows.set(disassemblyRequest);
+            int rows = disassemblyRows.count();
+            if (words.length < rows) {
+                words = new int[rows];
+            }
+            for (int row = 0; row < rows; row++) {
+                int address = (disassemblyRows.first + row) * 2 + (pc & 1);
+                words[row] = word(memory, address) << 16 | word(memory, address + 2);
+            }
+
+            metrics = core.getMetrics();
+            if (metrics != null) {
+                core.flushCounts();
+                System.arraycopy(metrics.opcodes, 0, opcodes, 0, opcodes.length);
+                instructionsPerSecond = metrics.getInstructionsPerSecond();
+                timerTicks = metrics.timerTicks;
+                framesPresented = metrics.getFramesPresented();
+                framesSkipped = metrics.getFramesSkipped();
+                cpuMillisPerFrame = metrics.getCpuMillisPerFrame();
+            }
+        }
+
+        void copyFrom(Sample sample) {
+            System.arraycopy(sample.v, 0, v, 0, v.length);
+            System.arraycopy(sample.stack, 0, stack, 0, stack.length);
+            System.arraycopy(sample.opcodes, 0, opcodes, 0, opcodes.length);
+            memoryRows.set(sample.memoryRows);
+            if (memoryBytes.length < sample.memoryBytes.length) {
+                memoryBytes = new byte[sample.memoryBytes.length];
+            }
+            System.arraycopy(sample.memoryBytes, 0, memoryBytes, 0, memoryRows.count() * BYTES_PER_LINE);
+            disassemblyRows.set(sample.disassemblyRows);
+            if (words.length < sample.words.length) {
+                words = new int[sample.words.length];
+            }
+            System.arraycopy(sample.words, 0, words, 0, disassemblyRows.count());
+            memorySize = sample.memorySize;
+            i = sample.i;
+            pc = sample.pc;
+            sp = sample.sp;
+            pcWords = sample.pcWords;
+            opcode = sample.opcode;
+            quirks = sample.quirks;
+            metrics = sample.metrics;
+            instructionsPerSecond = sample.instructionsPerSecond;
+            timerTicks = sample.timerTicks;
+            framesPresented = sample.framesPresented;
+            framesSkipped = sample.framesSkipped;
+            cpuMillisPerFrame = sample.cpuMillisPerFrame;
+        }
+    }
+
+    /**
+     * Guest memory, {@link #BYTES_PER_LINE} bytes per row. Cells are painted from the lines in the viewport as copied
+     * by the last {@link Sample}, never from the core's memory, so what is on screen is always a state the core was
+     * in between two frames. A refresh compares those lines with the copy it kept last time and repaints only the
+     * rows that differ, or all of them after a scroll; rows not copied yet are blank until the next refresh.
+     */
+    private static final class MemoryTableModel extends AbstractTableModel {
+        private byte[] shown = new byte[0];
+        private int shownFirst = -1;
+        private int shownRows;
+        private int size;
+
+        void update(int memorySize, RowRange range, byte[] lines) {
+            if (memorySize != size) {
+                size = memorySize;
+                shownFirst = -1;
+                fireTableDataChanged();
+            }
+            int first = range.first;
+            int rows = range.count();
+            if (rows == 0) {
+                return;
+            }
+            if (shown.length < rows * BYTES_PER_LINE) {
+                shown = new byte[rows * BYTES_PER_LINE];
+            }
+            boolean scrolled = first != shownFirst || rows != shownRows;
+            for (int row = first; row <= range.last; row++) {
+                int offset = (row - first) * BYTES_PER_LINE;
+                if (scrolled || !Arrays.equals(lines, offset, offset + BYTES_PER_LINE, shown, offset, offset + BYTES_PER_LINE)) {
+                    System.arraycopy(lines, offset, shown, offset, BYTES_PER_LINE);
+                    if (!scrolled) {
+                        fireTableRowsUpdated(row, row);
+                    }
+                }
+            }
+            shownFirst = first;
+            shownRows = rows;
+            if (scrolled) {
+                fireTableRowsUpdated(first, range.last);
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return size / BYTES_PER_LINE;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return BYTES_PER_LINE + 1;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return column == 0 ? "Address" : Integer.toHexString(column - 1).toUpperCase();
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            if (column == 0) {
+                return String.format("0x%04X", row * BYTES_PER_LINE);
+            }
+            if (row < shownFirst || row >= shownFirst + shownRows) {
+                return "";
+            }
+            return BYTE_DIGITS[shown[(row - shownFirst) * BYTES_PER_LINE + column - 1] & 0xFF];
+        }
+    }
+
+    /**
+     * One row per instruction slot, aligned with PC. Like the memory view, rows are painted from the instruction
+     * words copied by the last {@link Sample}. Mnemonics are decoded only for the rows being painted, and kept in a
+     * small direct-mapped cache keyed by address and by the four bytes they were decoded from, so a write to memory
+     * invalidates an entry without any notification. The current instruction is marked with {@code >}.
+     */
+    private static final class DisassemblyTableModel extends AbstractTableModel {
+        private static final int CACHE_SIZE = 256;
+        private static final String[] COLUMNS = { "Address", "Opcode", "Instruction" };
+
+        private final int[] cachedAddress = new int[CACHE_SIZE];
+        private final int[] cachedWords = new int[CACHE_SIZE];
+        private final String[] cachedText = new String[CACHE_SIZE];
+        private int[] shownWords = new int[0];
+        private int shownFirst = -1;
+        private int shownRows;
+        private int parity;
+        private int pc = -1;
+        private int size;
+        private Chip8Quirks quirks = Chip8Quirks.DEFAULT;
+
+        DisassemblyTableModel() {
+            Arrays.fill(cachedAddress, -1);
+        }
+
+        int rowOf(int address) {
+            return (address - parity) / 2;
+        }
+
+        private int addressOf(int row) {
+            return row * 2 + parity;
+        }
 
-        currentInstructionDisplay.setText("Current Instruction: " + String.format("0x%X", opcode  & 0xFFFF));
+        /**
+         * @param words the two instruction words at each row of {@code range}, as copied by the last {@link Sample}
+         */
+        void update(int memorySize, int pc, RowRange range, int[] words, Chip8Quirks quirks) {
+            if (quirks != this.quirks) {
+                this.quirks = quirks;
+                Arrays.fill(cachedText, null);
+                fireTableDataChanged();
+            }
+            if ((pc & 1) != parity || memorySize != size) {
+                parity = pc & 1;
+                size = memorySize;
+                this.pc = pc;
+                shownFirst = -1;
+                fireTableDataChanged();
+            } else if (pc != this.pc) {
+                int previous = this.pc;
+                this.pc = pc;
+                if (previous >= 0) {
+                    fireTableRowsUpdated(rowOf(previous), rowOf(previous));
+                }
+                fireTableRowsUpdated(rowOf(pc), rowOf(pc));
+            }
+            int first = range.first;
+            int rows = range.count();
+            if (rows == 0) {
+                return;
+            }
+            if (shownWords.length < rows) {
+                shownWords = new int[rows];
+            }
+            boolean scrolled = first != shownFirst || rows != shownRows;
+            for (int row = first; row <= range.last; row++) {
+                if (scrolled || shownWords[row - first] != words[row - first]) {
+                    shownWords[row - first] = words[row - first];
+                    if (!scrolled) {
+                        fireTableRowsUpdated(row, row);
+                    }
+                }
+            }
+            shownFirst = first;
+            shownRows = rows;
+            if (scrolled) {
+                fireTableRowsUpdated(first, range.last);
+            }
+        }
+
+        /**
+         * @param words the instruction at {@code address} in the high 16 bits and the word after it in the low 16
+         */
+        String disassemble(int address, int words) {
+            int slot = (address >> 1) & (CACHE_SIZE - 1);
+            if (cachedAddress[slot] != address || cachedWords[slot] != words || cachedText[slot] == null) {
+                cachedAddress[slot] = address;
+                cachedWords[slot] = words;
+                cachedText[slot] = Chip8Decoder.disassemble(Chip8Decoder.decode(words >>> 16, words & 0xFFFF, quirks));
+            }
+            return cachedText[slot];
+        }
+
+        @Override
+        public int getRowCount() {
+            return size / 2;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            int address = addressOf(row);
+            if (column == 0) {
+                return String.format("%s0x%04X", address == pc ? "> " : "  ", address);
+            }
+            if (row < shownFirst || row >= shownFirst + shownRows) {
+                return "";
+            }
+            int words = shownWords[row - shownFirst];
+            return column == 1 ? String.format("%04X", words >>> 16) : disassemble(address, words);
+        }
+    }
+
+    /**
+     * V0-VF followed by I. Values are cached so unchanged cells are neither formatted nor repainted.
+     */
+    private static final class RegisterTableModel extends AbstractTableModel {
+        private static final String[] NAMES = new String[17];
+
+        static {
+            for (int i = 0; i < 16; i++) {
+                NAMES[i] = "V" + Integer.toHexString(i).toUpperCase();
+            }
+            NAMES[16] = "I";
+        }
+
+        private final byte[] v = new byte[16];
+        private int i = -1;
+        private String iText = "";
+
+        void update(byte[] V, int I) {
+            for (int r = 0; r < v.length; r++) {
+                if (v[r] != V[r]) {
+                    v[r] = V[r];
+                    fireTableCellUpdated(r, 1);
+                }
+            }
+            if (i != I) {
+                i = I;
+                iText = address(I);
+                fireTableCellUpdated(16, 1);
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return NAMES.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 2;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return column == 0 ? "Register" : "Value";
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            if (column == 0) {
+                return NAMES[row];
+            }
+            return row < 16 ? BYTE_HEX[v[row] & 0xFF] : iText;
+        }
+    }
+
+    /**
+     * A ranked list from the profiler. Replaced wholesale, at most twice a second.
+     */
+    private static final class ProfileTableModel extends AbstractTableModel {
+        private final String[] columns;
+        private Object[][] rows = new Object[0][];
+
+        ProfileTableModel(String... columns) {
+            this.columns = columns;
+        }
+
+        void update(Object[][] rows) {
+            if (!Arrays.deepEquals(this.rows, rows)) {
+                this.rows = rows;
+                fireTableDataChanged();
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return rows[row][column];
+        }
+    }
+
+    /**
+     * Execution counts per opcode pattern, filled in while metrics are being collected.
+     */
+    private static final class OpcodeTableModel extends AbstractTableModel {
+        private final long[] counts = new long[Chip8Decoder.OP_COUNT];
+
+        void update(long[] current) {
+            for (int op = Chip8Decoder.OP_INVALID; op < counts.length; op++) {
+                if (counts[op] != current[op]) {
+                    counts[op] = current[op];
+                    fireTableCellUpdated(op - Chip8Decoder.OP_INVALID, 1);
+                }
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return counts.length - Chip8Decoder.OP_INVALID;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 2;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return column == 0 ? "Opcode" : "Executed";
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            int op = row + Chip8Decoder.OP_INVALID;
+            return column == 0 ? Chip8Decoder.pattern(op) : counts[op];
+        }
+    }
+
+    /**
+     * The active part of the call stack. Pushes and pops are reported as row inserts and deletes.
+     */
+    private static final class StackTableModel extends AbstractTableModel {
+        private final int[] entries = new int[16];
+        private final String[] text = new String[16];
+        private int size;
+
+        void update(int[] stack, int sp) {
+            int depth = Math.max(0, Math.min(sp, entries.length));
+            for (int i = 0; i < Math.min(depth, size); i++) {
+                if (entries[i] != stack[i]) {
+                    entries[i] = stack[i];
+                    text[i] = address(stack[i]);
+                    fireTableCellUpdated(i, 1);
+                }
+            }
+            if (depth > size) {
+                for (int i = size; i < depth; i++) {
+                    entries[i] = stack[i];
+                    text[i] = address(stack[i]);
+                }
+                int first = size;
+                size = depth;
+                fireTableRowsInserted(first, depth - 1);
+            } else if (depth < size) {
+                int last = size - 1;
+                size = depth;
+                fireTableRowsDeleted(depth, last);
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return size;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 2;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return column == 0 ? "Index" : "Address";
+        }
 
-        int[] stack = this.emulator.stack;
-        int sp = this.emulator.sp;
-        DefaultTableModel stackModel = (DefaultTableModel) stackTable.getModel();
-        stackModel.setRowCount(0);
-        for (int i = 0; i < sp; i++) {
-            stackModel.addRow(new Object[] {i, hex.formatHex(new byte[] {(byte) stack[i]})});
+        @Override
+        public Object getValueAt(int row, int column) {
+            return column == 0 ? row : text[row];
         }
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,285 @@
+/**
+ * Resolves raw CHIP-8 opcodes into a flat operation id so the core can dispatch with a single dense switch.
+ * A decoded instruction is packed into one int: the operation id in the upper 16 bits and the raw opcode, from
+ * which x, y, n, kk and nnn are read with a shift and a mask, in the lower 16 bits. Zero is never a valid packed
+ * value, which lets the per-address cache in {@link Chip8Core} use it to mean "not decoded yet".
+ *
+ * Opcodes whose behavior depends on the {@link Chip8Quirks} profile decode to a separate operation id per variant
+ * (OP_SHR or OP_SHR_VY, for example), so the choice is made once here rather than on every execution.
+ *
+ * The SUPER-CHIP and XO-CHIP extensions are always recognised, except XO-CHIP's F000 NNNN, which is four bytes long
+ * and so changes how classic ROMs decode; it is only recognised under profiles with {@link Chip8Quirks#longLoad()}.
+ * Decoding then also looks at the word that follows an instruction: F000 carries NNNN in its lower 16 bits in place
+ * of the opcode, and a skip followed by F000 decodes to a variant that skips four bytes.
+ */
+public final class Chip8Decoder {
+    public static final int OP_INVALID = 1;
+    public static final int OP_SYS = 2;
+    public static final int OP_CLS = 3;
+    public static final int OP_RET = 4;
+    public static final int OP_JP = 5;
+    public static final int OP_CALL = 6;
+    public static final int OP_SE_VX_KK = 7;
+    public static final int OP_SNE_VX_KK = 8;
+    public static final int OP_SE_VX_VY = 9;
+    public static final int OP_LD_VX_KK = 10;
+    public static final int OP_ADD_VX_KK = 11;
+    public static final int OP_LD_VX_VY = 12;
+    public static final int OP_OR = 13;
+    public static final int OP_AND = 14;
+    public static final int OP_XOR = 15;
+    public static final int OP_ADD_VX_VY = 16;
+    public static final int OP_SUB = 17;
+    public static final int OP_SHR = 18;
+    public static final int OP_SUBN = 19;
+    public static final int OP_SHL = 20;
+    public static final int OP_SNE_VX_VY = 21;
+    public static final int OP_LD_I = 22;
+    public static final int OP_JP_V0 = 23;
+    public static final int OP_RND = 24;
+    public static final int OP_DRW = 25;
+    public static final int OP_SKP = 26;
+    public static final int OP_SKNP = 27;
+    public static final int OP_LD_VX_DT = 28;
+    public static final int OP_LD_VX_K = 29;
+    public static final int OP_LD_DT = 30;
+    public static final int OP_LD_ST = 31;
+    public static final int OP_ADD_I = 32;
+    public static final int OP_LD_F = 33;
+    public static final int OP_BCD = 34;
+    public static final int OP_STORE = 35;
+    public static final int OP_LOAD = 36;
+    public static final int OP_OR_VF = 37;
+    public static final int OP_AND_VF = 38;
+    public static final int OP_XOR_VF = 39;
+    public static final int OP_SHR_VY = 40;
+    public static final int OP_SHL_VY = 41;
+    public static final int OP_JP_VX = 42;
+    public static final int OP_DRW_CLIP = 43;
+    public static final int OP_STORE_KEEP_I = 44;
+    public static final int OP_LOAD_KEEP_I = 45;
+    public static final int OP_SCD = 46;
+    public static final int OP_SCU = 47;
+    public static final int OP_SCR = 48;
+    public static final int OP_SCL = 49;
+    public static final int OP_EXIT = 50;
+    public static final int OP_LOW = 51;
+    public static final int OP_HIGH = 52;
+    public static final int OP_SAVE_RANGE = 53;
+    public static final int OP_LOAD_RANGE = 54;
+    public static final int OP_LD_I_LONG = 55;
+    public static final int OP_PLANE = 56;
+    public static final int OP_AUDIO = 57;
+    public static final int OP_LD_HF = 58;
+    public static final int OP_PITCH = 59;
+    public static final int OP_STORE_FLAGS = 60;
+    public static final int OP_LOAD_FLAGS = 61;
+    public static final int OP_SE_VX_KK_LONG = 62;
+    public static final int OP_SNE_VX_KK_LONG = 63;
+    public static final int OP_SE_VX_VY_LONG = 64;
+    public static final int OP_SNE_VX_VY_LONG = 65;
+    public static final int OP_SKP_LONG = 66;
+    public static final int OP_SKNP_LONG = 67;
+    public static final int OP_COUNT = 68;
+
+    /**
+     * XO-CHIP's four-byte {@code F000 NNNN}, which skips jump over as a whole.
+     */
+    public static final int LONG_LOAD = 0xF000;
+
+    private static final String[] PATTERNS = {
+        null, "????", "0NNN", "00E0", "00EE", "1NNN", "2NNN", "3XKK", "4XKK", "5XY0", "6XKK", "7XKK",
+        "8XY0", "8XY1", "8XY2", "8XY3", "8XY4", "8XY5", "8XY6", "8XY7", "8XYE", "9XY0", "ANNN", "BNNN", "CXKK",
+        "DXYN", "EX9E", "EXA1", "FX07", "FX0A", "FX15", "FX18", "FX1E", "FX29", "FX33", "FX55", "FX65",
+        "8XY1 VF=0", "8XY2 VF=0", "8XY3 VF=0", "8XY6 VY", "8XYE VY", "BXNN", "DXYN clip", "FX55 I kept", "FX65 I kept",
+        "00CN", "00DN", "00FB", "00FC", "00FD", "00FE", "00FF", "5XY2", "5XY3", "F000", "FN01", "F002", "FX30", "FX3A",
+        "FX75", "FX85", "3XKK long", "4XKK long", "5XY0 long", "9XY0 long", "EX9E long", "EXA1 long"
+    };
+
+    private Chip8Decoder() {
+    }
+
+    /**
+     * Returns the opcode pattern of an operation id, e.g. {@code 8XY4} for {@link #OP_ADD_VX_VY}.
+     */
+    public static String pattern(int op) {
+        return PATTERNS[op];
+    }
+
+    /**
+     * Returns the assembly form of a decoded instruction, e.g. {@code ADD V3, V4} or {@code LD I, 0x1234}.
+     * Quirk variants disassemble like the instruction they vary.
+     */
+    public static String disassemble(int decoded) {
+        int op = decoded >>> 16;
+        int x = (decoded >> 8) & 0xF;
+        int y = (decoded >> 4) & 0xF;
+        int n = decoded & 0xF;
+        int kk = decoded & 0xFF;
+        int nnn = decoded & 0xFFF;
+        return switch (op) {
+            case OP_SYS -> String.format("SYS 0x%03X", nnn);
+            case OP_CLS -> "CLS";
+            case OP_RET -> "RET";
+            case OP_JP -> String.format("JP 0x%03X", nnn);
+            case OP_CALL -> String.format("CALL 0x%03X", nnn);
+            case OP_SE_VX_KK, OP_SE_VX_KK_LONG -> String.format("SE V%X, 0x%02X", x, kk);
+            case OP_SNE_VX_KK, OP_SNE_VX_KK_LONG -> String.format("SNE V%X, 0x%02X", x, kk);
+            case OP_SE_VX_VY, OP_SE_VX_VY_LONG -> String.format("SE V%X, V%X", x, y);
+            case OP_LD_VX_KK -> String.format("LD V%X, 0x%02X", x, kk);
+            case OP_ADD_VX_KK -> String.format("ADD V%X, 0x%02X", x, kk);
+            case OP_LD_VX_VY -> String.format("LD V%X, V%X", x, y);
+            case OP_OR, OP_OR_VF -> String.format("OR V%X, V%X", x, y);
+            case OP_AND, OP_AND_VF -> String.format("AND V%X, V%X", x, y);
+            case OP_XOR, OP_XOR_VF -> String.format("XOR V%X, V%X", x, y);
+            case OP_ADD_VX_VY -> String.format("ADD V%X, V%X", x, y);
+            case OP_SUB -> String.format("SUB V%X, V%X", x, y);
+            case OP_SHR, OP_SHR_VY -> String.format("SHR V%X, V%X", x, y);
+            case OP_SUBN -> String.format("SUBN V%X, V%X", x, y);
+            case OP_SHL, OP_SHL_VY -> String.format("SHL V%X, V%X", x, y);
+            case OP_SNE_VX_VY, OP_SNE_VX_VY_LONG -> String.format("SNE V%X, V%X", x, y);
+            case OP_LD_I -> String.format("LD I, 0x%03X", nnn);
+            case OP_JP_V0 -> String.format("JP V0, 0x%03X", nnn);
+            case OP_JP_VX -> String.format("JP V%X, 0x%03X", x, nnn);
+            case OP_RND -> String.format("RND V%X, 0x%02X", x, kk);
+            case OP_DRW, OP_DRW_CLIP -> String.format("DRW V%X, V%X, %d", x, y, n);
+            case OP_SKP, OP_SKP_LONG -> String.format("SKP V%X", x);
+            case OP_SKNP, OP_SKNP_LONG -> String.format("SKNP V%X", x);
+            case OP_LD_VX_DT -> String.format("LD V%X, DT", x);
+            case OP_LD_VX_K -> String.format("LD V%X, K", x);
+            case OP_LD_DT -> String.format("LD DT, V%X", x);
+            case OP_LD_ST -> String.format("LD ST, V%X", x);
+            case OP_ADD_I -> String.format("ADD I, V%X", x);
+            case OP_LD_F -> String.format("LD F, V%X", x);
+            case OP_BCD -> String.format("LD B, V%X", x);
+            case OP_STORE, OP_STORE_KEEP_I -> String.format("LD [I], V%X", x);
+            case OP_LOAD, OP_LOAD_KEEP_I -> String.format("LD V%X, [I]", x);
+            case OP_SCD -> String.format("SCD %d", n);
+            case OP_SCU -> String.format("SCU %d", n);
+            case OP_SCR -> "SCR";
+            case OP_SCL -> "SCL";
+            case OP_EXIT -> "EXIT";
+            case OP_LOW -> "LOW";
+            case OP_HIGH -> "HIGH";
+            case OP_SAVE_RANGE -> String.format("SAVE V%X - V%X", x, y);
+            case OP_LOAD_RANGE -> String.format("LOAD V%X - V%X", x, y);
+            case OP_LD_I_LONG -> String.format("LD I, 0x%04X", decoded & 0xFFFF);
+            case OP_PLANE -> String.format("PLANE %d", x);
+            case OP_AUDIO -> "AUDIO";
+            case OP_LD_HF -> String.format("LD HF, V%X", x);
+            case OP_PITCH -> String.format("PITCH V%X", x);
+            case OP_STORE_FLAGS -> String.format("LD R, V%X", x);
+            case OP_LOAD_FLAGS -> String.format("LD V%X, R", x);
+            default -> String.format("DW 0x%04X", decoded & 0xFFFF);
+        };
+    }
+
+    public static int decode(int opcode) {
+        return decode(opcode, 0, Chip8Quirks.DEFAULT);
+    }
+
+    /**
+     * @param next the 16-bit word following the instruction in memory
+     */
+    public static int decode(int opcode, int next, Chip8Quirks quirks) {
+        int op = operation(opcode, next, quirks);
+        return (op << 16) | ((op == OP_LD_I_LONG ? next : opcode) & 0xFFFF);
+    }
+
+    public static int operation(int opcode, int next, Chip8Quirks quirks) {
+        int op = operation(opcode);
+        boolean beforeLongLoad = quirks.longLoad() && next == LONG_LOAD;
+        return switch (op) {
+            case OP_SE_VX_KK -> beforeLongLoad ? OP_SE_VX_KK_LONG : op;
+            case OP_SNE_VX_KK -> beforeLongLoad ? OP_SNE_VX_KK_LONG : op;
+            case OP_SE_VX_VY -> beforeLongLoad ? OP_SE_VX_VY_LONG : op;
+            case OP_SNE_VX_VY -> beforeLongLoad ? OP_SNE_VX_VY_LONG : op;
+            case OP_SKP -> beforeLongLoad ? OP_SKP_LONG : op;
+            case OP_SKNP -> beforeLongLoad ? OP_SKNP_LONG : op;
+            case OP_OR -> quirks.logicResetsVf() ? OP_OR_VF : op;
+            case OP_AND -> quirks.logicResetsVf() ? OP_AND_VF : op;
+            case OP_XOR -> quirks.logicResetsVf() ? OP_XOR_VF : op;
+            case OP_SHR -> quirks.shiftUsesVy() ? OP_SHR_VY : op;
+            case OP_SHL -> quirks.shiftUsesVy() ? OP_SHL_VY : op;
+            case OP_JP_V0 -> quirks.jumpUsesVx() ? OP_JP_VX : op;
+            case OP_DRW -> quirks.clipSprites() ? OP_DRW_CLIP : op;
+            case OP_STORE -> quirks.memoryIncrementsI() ? op : OP_STORE_KEEP_I;
+            case OP_LOAD -> quirks.memoryIncrementsI() ? op : OP_LOAD_KEEP_I;
+            case OP_LD_I_LONG -> quirks.longLoad() ? op : OP_INVALID;
+            default -> op;
+        };
+    }
+
+    public static int operation(int opcode) {
+        int x = opcode & 0x0F00;
+        int n = opcode & 0xF;
+        int kk = opcode & 0xFF;
+        return switch (opcode & 0xF000) {
+            case 0x0000 -> {
+                if (opcode == 0x00E0) yield OP_CLS;
+                if (opcode == 0x00EE) yield OP_RET;
+                if (opcode == 0x00FB) yield OP_SCR;
+                if (opcode == 0x00FC) yield OP_SCL;
+                if (opcode == 0x00FD) yield OP_EXIT;
+                if (opcode == 0x00FE) yield OP_LOW;
+                if (opcode == 0x00FF) yield OP_HIGH;
+                if ((opcode & 0xFFF0) == 0x00C0) yield OP_SCD;
+                if ((opcode & 0xFFF0) == 0x00D0) yield OP_SCU;
+                yield x == 0 && kk == 0 ? OP_INVALID : OP_SYS;
+            }
+            case 0x1000 -> OP_JP;
+            case 0x2000 -> OP_CALL;
+            case 0x3000 -> OP_SE_VX_KK;
+            case 0x4000 -> OP_SNE_VX_KK;
+            case 0x5000 -> switch (n) {
+                case 0x0 -> OP_SE_VX_VY;
+                case 0x2 -> OP_SAVE_RANGE;
+                case 0x3 -> OP_LOAD_RANGE;
+                default -> OP_INVALID;
+            };
+            case 0x6000 -> OP_LD_VX_KK;
+            case 0x7000 -> OP_ADD_VX_KK;
+            case 0x8000 -> switch (n) {
+                case 0x0 -> OP_LD_VX_VY;
+                case 0x1 -> OP_OR;
+                case 0x2 -> OP_AND;
+                case 0x3 -> OP_XOR;
+                case 0x4 -> OP_ADD_VX_VY;
+                case 0x5 -> OP_SUB;
+                case 0x6 -> OP_SHR;
+                case 0x7 -> OP_SUBN;
+                case 0xE -> OP_SHL;
+                default -> OP_INVALID;
+            };
+            case 0x9000 -> OP_SNE_VX_VY;
+            case 0xA000 -> OP_LD_I;
+            case 0xB000 -> OP_JP_V0;
+            case 0xC000 -> OP_RND;
+            case 0xD000 -> OP_DRW;
+            case 0xE000 -> switch (kk) {
+                case 0x9E -> OP_SKP;
+                case 0xA1 -> OP_SKNP;
+                default -> OP_INVALID;
+            };
+            default -> switch (kk) {
+                case 0x00 -> x == 0 ? OP_LD_I_LONG : OP_INVALID;
+                case 0x01 -> OP_PLANE;
+                case 0x02 -> x == 0 ? OP_AUDIO : OP_INVALID;
+                case 0x07 -> OP_LD_VX_DT;
+                case 0x0A -> OP_LD_VX_K;
+                case 0x15 -> OP_LD_DT;
+                case 0x18 -> OP_LD_ST;
+                case 0x1E -> OP_ADD_I;
+                case 0x29 -> OP_LD_F;
+                case 0x30 -> OP_LD_HF;
+                case 0x33 -> OP_BCD;
+                case 0x3A -> OP_PITCH;
+                case 0x55 -> OP_STORE;
+                case 0x65 -> OP_LOAD;
+                case 0x75 -> OP_STORE_FLAGS;
+                case 0x85 -> OP_LOAD_FLAGS;
+                default -> OP_INVALID;
+            };
+        };
+    }
+}
@@ -1,59 +1,76 @@
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
-import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.UnsupportedAudioFileException;
 import javax.swing.*;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
-import java.nio.file.Files;
-import java.util.Arrays;
-
-public class Chip8Emulator extends JPanel implements KeyListener, ActionListener {
-    protected final byte[] memory = new byte[4096];
-    protected final byte[] V = new byte[16];
-    protected int I, pc;
-    protected final int[] stack = new int[16];
-    protected int sp;
-    private int delayTimer, soundTimer;
-    private final boolean[] keys = new boolean[16];
-    private final boolean[] display = new boolean[64 * 32];
-    private final Timer timer;
-    private boolean waitingForKeyPress = false;
-    private int keyRegister = 0;
-    private Clip audioClip;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class Chip8Emulator extends JPanel implements KeyListener {
+    private static final int DEFAULT_IPS = 600;
+    private static final int REWIND_SECONDS = 10;
+    private static final int[] SPEEDS = { 600, 1000, 2000, Chip8Clock.UNLIMITED };
+    protected final Chip8Core core = new Chip8Core();
+    private final Chip8Renderer renderer = new Chip8Renderer();
+    private Chip8Snapshot quickSave;
+    private byte[] romData;
+    private Chip8Quirks romQuirks = Chip8Quirks.DEFAULT;
+    /**
+     * The profile chosen in the Quirks menu, or null to use the one the ROM database lists for the loaded ROM.
+     */
+    private Chip8Quirks quirksOverride;
+    private Chip8Movie.Recorder recorder;
+    protected final Chip8Rewind rewind = new Chip8Rewind(REWIND_SECONDS);
+    protected final Chip8Breakpoints breakpoints = new Chip8Breakpoints(core);
+    private final Chip8Clock clock = new Chip8Clock(core, DEFAULT_IPS);
+    private final Chip8Metrics metrics = new Chip8Metrics(core);
     private boolean isIdle = true;
     private final static String WINDOW_TITLE = "CHIP-8 Emulator";
     private static JFrame frame;
-    private static final int TICKS = 60;
     protected boolean isPaused = false;
+    private volatile Runnable frameListener = () -> {};
 
-    public Chip8Emulator() throws UnsupportedAudioFileException, IOException, LineUnavailableException {
+    public Chip8Emulator() {
         setPreferredSize(new Dimension(640, 320));
         setBackground(Color.BLACK);
         addKeyListener(this);
         setFocusable(true);
         requestFocusInWindow();
-        loadBeepWavFile();
+        core.setSoundSink(Chip8Audio.open());
+        core.setDisplaySink(c -> {
+            if (renderer.update(c)) {
+                repaint();
+            }
+        });
+        clock.setFrameHook(() -> {
+            rewind.record(core);
+            frameListener.run();
+        });
+        metrics.register();
+        clock.setErrorHandler(e -> SwingUtilities.invokeLater(() -> {
+            frame.setTitle(frame.getTitle() + " - halted: " + e.getMessage());
+        }));
         reset();
+        clock.start();
+    }
 
-        timer = new Timer(1000 / TICKS, this);
-        timer.start();
+    /**
+     * Runs {@code listener} after every frame, on the clock thread while holding the core's monitor.
+     */
+    void setFrameListener(Runnable listener) {
+        frameListener = listener == null ? () -> {} : listener;
     }
 
-    private void loadBeepWavFile() throws UnsupportedAudioFileException, IOException, LineUnavailableException {
-        String currentPath = System.getProperty("user.dir");
-        AudioInputStream audioStream = AudioSystem.getAudioInputStream(new File(currentPath + "\\audio" + "\\beep.wav"));
-        audioClip = AudioSystem.getClip();
-        audioClip.open(audioStream);
+    /**
+     * Whether the clock is running no frames, because the emulator is paused or has no ROM loaded.
+     */
+    boolean isClockPaused() {
+        return clock.isPaused();
     }
 
-    private void playBeepWavFile() {
-        if (audioClip != null) {
-            audioClip.setFramePosition(0);
-            audioClip.start();
-        }
+    private void updateClock() {
+        clock.setPaused(isIdle || isPaused);
     }
 
     private void loadROMWithDialog() {
@@ -62,307 +79,154 @@ public class Chip8Emulator extends JPanel implements KeyListener, ActionListener
 
         int result = chooser.showOpenDialog(null);
         if (result == JFileChooser.APPROVE_OPTION) {
-            this.reset();
-            File rom = chooser.getSelectedFile();
-            try {
-                byte[] data = Files.readAllBytes(rom.toPath());
-                if (data.length + 0x200 > memory.length) {
-                    throw new IOException("ROM file is too large");
-                }
-                System.arraycopy(data, 0, memory, 0x200, data.length);
-                frame.setTitle(WINDOW_TITLE + " - " + rom.toURI().toString().split("/")[rom.toURI().toString().split("/").length - 1]);
-                isIdle = false;
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(null, "Error loading ROM: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            loadROM(chooser.getSelectedFile().toPath());
         }
     }
 
-    private void restart() throws IOException {
-        Arrays.fill(V, (byte) 0);
-        Arrays.fill(stack, 0);
-        Arrays.fill(display, false);
-        Arrays.fill(keys, false);
-        I = pc = 0x200;
-        sp = delayTimer = soundTimer = 0;
-        waitingForKeyPress = false;
-
-        Graphics g = getGraphics();
-        for (int y = 0; y < 32; y++) {
-            for (int x = 0; x < 64; x++) {
-                if (display[y * 64 + x]) {
-                    g.setColor(Color.WHITE);
-                    g.fillRect(x * 10, y * 10, 10, 10);
-                } else {
-                    g.setColor(Color.DARK_GRAY);
-                    g.fillRect(x * 10, y * 10, 10, 10);
+    /**
+     * Loads and starts a ROM. Invalid opcodes found by the pre-pass are reported in the title bar and on stderr
+     * rather than when execution reaches them.
+     */
+    public void loadROM(Path path) {
+        this.reset();
+        try {
+            Chip8Rom rom = Chip8Rom.open(path);
+            synchronized (core) {
+                core.loadROM(rom);
+                if (quirksOverride != null) {
+                    core.setQuirks(quirksOverride);
                 }
             }
+            romData = rom.data();
+            romQuirks = rom.quirks();
+            String title = WINDOW_TITLE + " - " + rom.name();
+            int[] invalid = rom.analysis().invalidAddresses();
+            if (invalid.length > 0) {
+                title += " (" + invalid.length + " invalid opcodes)";
+                for (int address : invalid) {
+                    System.err.printf("%s: invalid opcode at 0x%03X%n", rom.name(), address);
+                }
+            }
+            frame.setTitle(title);
+            isIdle = false;
+            updateClock();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Error loading ROM: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
-    protected void reset() {
-        Arrays.fill(memory, (byte) 0);
-        Arrays.fill(V, (byte) 0);
-        Arrays.fill(stack, 0);
-        Arrays.fill(display, false);
-        Arrays.fill(keys, false);
-        I = pc = 0x200;
-        sp = delayTimer = soundTimer = 0;
-        waitingForKeyPress = false;
-        loadFontset();
-        frame.setTitle(WINDOW_TITLE);
+    private void restart() {
+        stopRecording();
+        synchronized (core) {
+            core.restart();
+            core.present();
+            rewind.clear();
+        }
+    }
 
-        if (!isIdle) {
-            Graphics g = getGraphics();
-            for (int y = 0; y < 32; y++) {
-                for (int x = 0; x < 64; x++) {
-                    if (display[y * 64 + x]) {
-                        g.setColor(Color.WHITE);
-                        g.fillRect(x * 10, y * 10, 10, 10);
-                    } else {
-                        g.setColor(Color.DARK_GRAY);
-                        g.fillRect(x * 10, y * 10, 10, 10);
-                    }
-                }
+    private void saveState() {
+        synchronized (core) {
+            if (quickSave == null) {
+                quickSave = Chip8Snapshot.capture(core);
+            } else {
+                quickSave.captureFrom(core);
             }
         }
-
-        isIdle = true;
     }
 
-    private void loadFontset() {
-        byte[] fontset = {
-            (byte) 0xF0, (byte) 0x90, (byte) 0x90, (byte) 0x90, (byte) 0xF0, // 0
-            (byte) 0x20, (byte) 0x60, (byte) 0x20, (byte) 0x20, (byte) 0x70, // 1
-            (byte) 0xF0, (byte) 0x10, (byte) 0xF0, (byte) 0x80, (byte) 0xF0, // 2
-            (byte) 0xF0, (byte) 0x10, (byte) 0xF0, (byte) 0x10, (byte) 0xF0, // 3
-            (byte) 0x90, (byte) 0x90, (byte) 0xF0, (byte) 0x10, (byte) 0x10, // 4
-            (byte) 0xF0, (byte) 0x80, (byte) 0xF0, (byte) 0x10, (byte) 0xF0, // 5
-            (byte) 0xF0, (byte) 0x80, (byte) 0xF0, (byte) 0x90, (byte) 0xF0, // 6
-            (byte) 0xF0, (byte) 0x10, (byte) 0x20, (byte) 0x40, (byte) 0x40, // 7
-            (byte) 0xF0, (byte) 0x90, (byte) 0xF0, (byte) 0x90, (byte) 0xF0, // 8
-            (byte) 0xF0, (byte) 0x90, (byte) 0xF0, (byte) 0x10, (byte) 0xF0, // 9
-            (byte) 0xF0, (byte) 0x90, (byte) 0xF0, (byte) 0x90, (byte) 0x90, // A
-            (byte) 0xE0, (byte) 0x90, (byte) 0xE0, (byte) 0x90, (byte) 0xE0, // B
-            (byte) 0xF0, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0xF0, // C
-            (byte) 0xE0, (byte) 0x90, (byte) 0x90, (byte) 0x90, (byte) 0xE0, // D
-            (byte) 0xF0, (byte) 0x80, (byte) 0xF0, (byte) 0x80, (byte) 0xF0, // E
-            (byte) 0xF0, (byte) 0x80, (byte) 0xF0, (byte) 0x80, (byte) 0x80  // F
-        };
-        System.arraycopy(fontset, 0, memory, 0x50, fontset.length);
+    private void loadState() {
+        if (quickSave == null) {
+            return;
+        }
+        stopRecording();
+        synchronized (core) {
+            quickSave.restoreTo(core);
+            core.present();
+        }
     }
 
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        for (int y = 0; y < 32; y++) {
-            for (int x = 0; x < 64; x++) {
-                if (display[y * 64 + x]) {
-                    g.setColor(Color.WHITE);
-                    g.fillRect(x * 10, y * 10, 10, 10);
-                } else {
-                    g.setColor(Color.DARK_GRAY);
-                    g.fillRect(x * 10, y * 10, 10, 10);
-                }
+    private void stepBack() {
+        stopRecording();
+        synchronized (core) {
+            if (rewind.stepBack(core)) {
+                core.present();
             }
         }
     }
 
-    @Override
-    public void actionPerformed(ActionEvent e) {
-        if (isIdle) {
+    /**
+     * Boots the loaded ROM from power-on with a new seed and records a movie of the run.
+     */
+    private void startRecording() {
+        if (romData == null || recorder != null) {
             return;
         }
-        if (!waitingForKeyPress) {
-            for (int i = 0; i < 10; i++) {
-                emulateCycle();
-            }
+        synchronized (core) {
+            recorder = Chip8Movie.record(core, romData, ThreadLocalRandom.current().nextLong());
+            core.present();
+            rewind.clear();
         }
-        repaint();
+    }
 
-        if (delayTimer > 0){
-            delayTimer--;
+    /**
+     * Ends the current recording, if any, and offers to save it. Anything that rewinds the machine or switches its
+     * quirks calls this first, since the movie could not be replayed past that point.
+     */
+    private void stopRecording() {
+        if (recorder == null) {
+            return;
         }
-        if (soundTimer > 0) {
-            if (soundTimer == 1){
-                playBeepWavFile();
+        Chip8Movie movie;
+        synchronized (core) {
+            movie = Chip8Movie.stop(core, recorder);
+        }
+        recorder = null;
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Save Movie");
+        if (chooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
+            try {
+                movie.save(chooser.getSelectedFile().toPath());
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(null, "Error saving movie: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
-            soundTimer--;
         }
     }
 
-    private void emulateCycle() {
-        int opcode = 0;
-        int x = 0;
-        int y = 0;
-        int nnn = 0;
-        int kk = 0;
-        int n = 0;
+    private void setQuirksOverride(Chip8Quirks quirks) {
+        stopRecording();
+        quirksOverride = quirks;
+        synchronized (core) {
+            core.setQuirks(quirks != null ? quirks : romQuirks);
+        }
+    }
 
-        try {
-            opcode = (memory[pc] << 8) | (memory[pc + 1] & 0xFF);
-            x = (opcode >> 8) & 0xF;
-            y = (opcode >> 4) & 0xF;
-            nnn = opcode & 0xFFF;
-            kk = opcode & 0xFF;
-            n = opcode & 0xF;
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(null, "Opcode Error: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            this.reset();
+    protected void reset() {
+        stopRecording();
+        romData = null;
+        synchronized (core) {
+            core.reset();
+            core.present();
+            rewind.clear();
         }
+        frame.setTitle(WINDOW_TITLE);
 
-        pc += 2;
+        isIdle = true;
+        updateClock();
+    }
 
-        switch (opcode & 0xF000) {
-            case 0x0000:
-                if (opcode == 0x00E0) {
-                    Arrays.fill(display, false);
-                } else if (opcode == 0x00EE) {
-                    sp--;
-                    pc = stack[sp];
-                }
-                break;
-            case 0x1000:
-                pc = nnn;
-                break;
-            case 0x2000:
-                stack[sp++] = pc;
-                pc = nnn;
-                break;
-            case 0x3000:
-                if (V[x] == (byte) kk)
-                    pc += 2;
-                break;
-            case 0x4000:
-                if (V[x] != (byte) kk)
-                    pc += 2;
-                break;
-            case 0x5000:
-                if (V[x] == V[y])
-                    pc += 2;
-                break;
-            case 0x6000:
-                V[x] = (byte) kk;
-                break;
-            case 0x7000:
-                V[x] += (byte) kk;
-                break;
-            case 0x8000:
-                switch (n) {
-                    case 0x0:
-                        V[x] = V[y];
-                        break;
-                    case 0x1:
-                        V[x] |= V[y];
-                        break;
-                    case 0x2:
-                        V[x] &= V[y];
-                        break;
-                    case 0x3:
-                        V[x] ^= V[y];
-                        break;
-                    case 0x4:
-                        int sum = (V[x] & 0xFF) + (V[y] & 0xFF);
-                        V[0xF] = (byte) (sum > 255 ? 1 : 0);
-                        V[x] = (byte) sum;
-                        break;
-                    case 0x5:
-                        V[0xF] = (byte) ((V[x] & 0xFF) >= (V[y] & 0xFF) ? 1 : 0);
-                        V[x] -= V[y];
-                        break;
-                    case 0x6:
-                        V[0xF] = (byte) (V[x] & 1);
-                        V[x] = (byte) ((V[x] & 0xFF) >>> 1);
-                        break;
-                    case 0x7:
-                        V[0xF] = (byte) ((V[y] & 0xFF) >= (V[x] & 0xFF) ? 1 : 0);
-                        V[x] = (byte) (V[y] - V[x]);
-                        break;
-                    case 0xE:
-                        V[0xF] = (byte) ((V[x] & 0x80) >>> 7);
-                        V[x] = (byte) ((V[x] & 0xFF) << 1);
-                        break;
-                }
-                break;
-            case 0x9000:
-                if (V[x] != V[y])
-                    pc += 2;
-                break;
-            case 0xA000:
-                I = nnn;
-                break;
-            case 0xB000:
-                pc = nnn + (V[0] & 0xFF);
-                break;
-            case 0xC000:
-                V[x] = (byte) ((int) (Math.random() * 0xFF) & kk);
-                break;
-            case 0xD000: {
-                V[0xF] = 0;
-                for (int row = 0; row < n; row++) {
-                    byte sprite = memory[I + row];
-                    for (int col = 0; col < 8; col++) {
-                        int px = (V[x] + col) & 0x3F;
-                        int py = (V[y] + row) & 0x1F;
-                        int idx = py * 64 + px;
-                        boolean bit = ((sprite >> (7 - col)) & 1) == 1;
-                        if (bit && display[idx])
-                            V[0xF] = 1;
-                        display[idx] ^= bit;
-                    }
-                }
-                break;
-            }
-            case 0xE000:
-                if (kk == 0x9E && keys[V[x] & 0xF])
-                    pc += 2;
-                else if (kk == 0xA1 && !keys[V[x] & 0xF])
-                    pc += 2;
-                break;
-            case 0xF000:
-                switch (kk) {
-                    case 0x07:
-                        V[x] = (byte) delayTimer;
-                        break;
-                    case 0x0A:
-                        waitingForKeyPress = true;
-                        keyRegister = x;
-                        pc -= 2;
-                        break;
-                    case 0x15:
-                        delayTimer = V[x] & 0xFF;
-                        break;
-                    case 0x18:
-                        soundTimer = V[x] & 0xFF;
-                        break;
-                    case 0x1E:
-                        I += V[x] & 0xFF;
-                        break;
-                    case 0x29:
-                        I = 0x50 + ((V[x] & 0xF) * 5);
-                        break;
-                    case 0x33: {
-                        int value = V[x] & 0xFF;
-                        memory[I] = (byte) (value / 100);
-                        memory[I + 1] = (byte) ((value / 10) % 10);
-                        memory[I + 2] = (byte) (value % 10);
-                        break;
-                    }
-                    case 0x55:
-                        for (int i = 0; i <= x; i++)
-                            memory[I + i] = V[i];
-                        I += x + 1;
-                        break;
-                    case 0x65:
-                        for (int i = 0; i <= x; i++)
-                            V[i] = memory[I + i];
-                        I += x + 1;
-                        break;
-                }
-                break;
-            default: JOptionPane.showMessageDialog(null, "Unknown Instruction: " + (opcode & 0xF000), "Error", JOptionPane.ERROR_MESSAGE);
+    @Override
+    protected void paintComponent(Graphics g) {
+        Chip8Metrics.PaintEvent event = new Chip8Metrics.PaintEvent();
+        event.begin();
+        long start = System.nanoTime();
+        super.paintComponent(g);
+        renderer.paint(g, getWidth(), getHeight());
+        Chip8Metrics collecting = core.getMetrics();
+        if (collecting != null) {
+            collecting.paintCompleted(System.nanoTime() - start);
         }
+        event.commit();
     }
 
     private int mapKey(int code) {
@@ -391,12 +255,7 @@ public class Chip8Emulator extends JPanel implements KeyListener, ActionListener
     public void keyPressed(KeyEvent e) {
         int k = mapKey(e.getKeyCode());
         if (k != -1) {
-            keys[k] = true;
-            if (waitingForKeyPress) {
-                V[keyRegister] = (byte) k;
-                waitingForKeyPress = false;
-                pc += 2;
-            }
+            clock.getInput().offer(k, true, System.nanoTime());
         }
     }
 
@@ -404,7 +263,7 @@ public class Chip8Emulator extends JPanel implements KeyListener, ActionListener
     public void keyReleased(KeyEvent e) {
         int k = mapKey(e.getKeyCode());
         if (k != -1) {
-            keys[k] = false;
+            clock.getInput().offer(k, false, System.nanoTime());
         }
     }
 
@@ -417,20 +276,17 @@ public class Chip8Emulator extends JPanel implements KeyListener, ActionListener
             frame = new JFrame(WINDOW_TITLE);
             frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-            Chip8Emulator emulator = null;
-            Chip8Debugger debugger = null;
-            try {
-                emulator = new Chip8Emulator();
-                debugger = new Chip8Debugger(emulator);
-            } catch (UnsupportedAudioFileException | IOException | LineUnavailableException e) {
-                e.printStackTrace();
-            }
+            Chip8Emulator emulator = new Chip8Emulator();
+            Chip8Debugger debugger = new Chip8Debugger(emulator);
             createMenuBar(frame, emulator, debugger);
             frame.setResizable(false);
             frame.setContentPane(emulator);
             frame.pack();
             frame.setLocationRelativeTo(null);
             frame.setVisible(true);
+            if (args.length > 0) {
+                emulator.loadROM(Path.of(args[0]));
+            }
         });
     }
 
@@ -446,11 +302,50 @@ public class Chip8Emulator extends JPanel implements KeyListener, ActionListener
         JMenuItem debugWindowItem = new JMenuItem("Debug Window");
         JMenuItem pauseItem = new JMenuItem("Pause Clock");
         JMenuItem nextInstructionItem = new JMenuItem("Next Instruction");
+        JMenuItem previousFrameItem = new JMenuItem("Previous Frame");
+        JCheckBoxMenuItem metricsItem = new JCheckBoxMenuItem("Collect Metrics");
+        previousFrameItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_BACK_SPACE, 0));
 
         nextInstructionItem.setEnabled(false);
+        previousFrameItem.setEnabled(false);
 
         JMenuItem restartItem = new JMenuItem("Restart");
         JMenuItem resetItem = new JMenuItem("Reset");
+        JMenuItem saveStateItem = new JMenuItem("Save State");
+        JMenuItem loadStateItem = new JMenuItem("Load State");
+        saveStateItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0));
+        loadStateItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F8, 0));
+        JCheckBoxMenuItem recordItem = new JCheckBoxMenuItem("Record Movie");
+        JMenu speedMenu = new JMenu("Speed");
+        ButtonGroup speedGroup = new ButtonGroup();
+        for (int ips : SPEEDS) {
+            JRadioButtonMenuItem speedItem = new JRadioButtonMenuItem(ips == Chip8Clock.UNLIMITED ? "Unlimited" : ips + " IPS", ips == DEFAULT_IPS);
+            speedItem.addActionListener(_ -> emulator.clock.setInstructionsPerSecond(ips));
+            speedGroup.add(speedItem);
+            speedMenu.add(speedItem);
+        }
+        JMenu runAheadMenu = new JMenu("Run-Ahead");
+        ButtonGroup runAheadGroup = new ButtonGroup();
+        for (int frames = 0; frames <= Chip8RunAhead.MAX_FRAMES; frames++) {
+            int runAheadFrames = frames;
+            JRadioButtonMenuItem runAheadItem = new JRadioButtonMenuItem(frames == 0 ? "Off" : frames == 1 ? "1 Frame" : frames + " Frames", frames == 0);
+            runAheadItem.addActionListener(_ -> emulator.clock.setRunAheadFrames(runAheadFrames));
+            runAheadGroup.add(runAheadItem);
+            runAheadMenu.add(runAheadItem);
+        }
+        JMenu quirksMenu = new JMenu("Quirks");
+        ButtonGroup quirksGroup = new ButtonGroup();
+        JRadioButtonMenuItem automaticItem = new JRadioButtonMenuItem("Automatic", true);
+        automaticItem.addActionListener(_ -> emulator.setQuirksOverride(null));
+        quirksGroup.add(automaticItem);
+        quirksMenu.add(automaticItem);
+        quirksMenu.addSeparator();
+        for (Chip8Quirks quirks : Chip8Quirks.PROFILES) {
+            JRadioButtonMenuItem quirksItem = new JRadioButtonMenuItem(quirks.name());
+            quirksItem.addActionListener(_ -> emulator.setQuirksOverride(quirks));
+            quirksGroup.add(quirksItem);
+            quirksMenu.add(quirksItem);
+        }
 
         fileMenu.add(openItem);
         fileMenu.addSeparator();
@@ -459,9 +354,20 @@ public class Chip8Emulator extends JPanel implements KeyListener, ActionListener
         debugMenu.add(debugWindowItem);
         debugMenu.add(pauseItem);
         debugMenu.add(nextInstructionItem);
+        debugMenu.add(previousFrameItem);
+        debugMenu.addSeparator();
+        debugMenu.add(metricsItem);
 
         chip8Menu.add(restartItem);
         chip8Menu.add(resetItem);
+        chip8Menu.addSeparator();
+        chip8Menu.add(saveStateItem);
+        chip8Menu.add(loadStateItem);
+        chip8Menu.add(recordItem);
+        chip8Menu.addSeparator();
+        chip8Menu.add(speedMenu);
+        chip8Menu.add(runAheadMenu);
+        chip8Menu.add(quirksMenu);
 
         menuBar.add(fileMenu);
         menuBar.add(debugMenu);
@@ -481,32 +387,80 @@ public class Chip8Emulator extends JPanel implements KeyListener, ActionListener
             debugger.setVisible(true);
         });
 
+        emulator.breakpoints.setListener(hit -> SwingUtilities.invokeLater(() -> {
+            if (!emulator.isPaused) {
+                pauseItem.doClick();
+            }
+            debugger.setVisible(true);
+            debugger.showHit(hit);
+        }));
+
         pauseItem.addActionListener(_ -> {
             if (pauseItem.getText().equals("Resume Clock")) {
                 pauseItem.setText("Pause Clock");
-                emulator.timer.start();
+                emulator.breakpoints.resume();
                 emulator.isPaused = false;
+                emulator.updateClock();
                 nextInstructionItem.setEnabled(false);
+                previousFrameItem.setEnabled(false);
             } else {
                 pauseItem.setText("Resume Clock");
-                emulator.timer.stop();
                 emulator.isPaused = true;
+                emulator.updateClock();
                 nextInstructionItem.setEnabled(true);
+                previousFrameItem.setEnabled(true);
             }
         });
 
+        metricsItem.addActionListener(_ -> {
+            emulator.metrics.setEnabled(metricsItem.isSelected());
+        });
+
         nextInstructionItem.addActionListener(_ -> {
-            emulator.isPaused = false;
-            emulator.emulateCycle();
+            emulator.breakpoints.resume();
+            emulator.clock.step();
             debugger.updateDebugger();
-            emulator.isPaused = true;
         });
         
+        previousFrameItem.addActionListener(_ -> {
+            emulator.stepBack();
+            debugger.updateDebugger();
+        });
+
         restartItem.addActionListener(_ -> {
-            try {
-                emulator.restart();
-            } catch (IOException e) {
-                e.printStackTrace();
+            emulator.restart();
+        });
+
+        saveStateItem.addActionListener(_ -> {
+            emulator.saveState();
+        });
+
+        loadStateItem.addActionListener(_ -> {
+            emulator.loadState();
+        });
+
+        recordItem.addActionListener(_ -> {
+            if (recordItem.isSelected()) {
+                emulator.startRecording();
+            } else {
+                emulator.stopRecording();
+            }
+            recordItem.setSelected(emulator.recorder != null);
+        });
+
+        chip8Menu.addMenuListener(new MenuListener() {
+            @Override
+            public void menuSelected(MenuEvent e) {
+                recordItem.setSelected(emulator.recorder != null);
+                recordItem.setEnabled(emulator.romData != null);
+            }
+
+            @Override
+            public void menuDeselected(MenuEvent e) {
+            }
+
+            @Override
+            public void menuCanceled(MenuEvent e) {
             }
         });
 
@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many independent {@link Chip8Core} instances in parallel on a work-stealing pool. Every job gets its own core,
+ * so memory, registers and the CXKK generator are never shared between runs.
+ */
+public class Chip8Farm implements AutoCloseable {
+    public record Job(Chip8Rom rom, long cycles, int cyclesPerFrame, long seed, boolean jit) {
+        public String name() {
+            return rom.name();
+        }
+    }
+
+    public record Result(String name, long cycles, long nanos, boolean waitingForKey, long[] display, String error) {
+    }
+
+    private final ForkJoinPool pool;
+
+    public Chip8Farm(int threads) {
+        pool = new ForkJoinPool(threads);
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Runs every job and returns the results in submission order.
+     */
+    public List<Result> run(List<Job> jobs) throws InterruptedException {
+        List<Future<Result>> futures = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            futures.add(pool.submit(() -> execute(job)));
+        }
+        List<Result> results = new ArrayList<>(jobs.size());
+        for (Future<Result> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    public static Result execute(Job job) {
+        Chip8Core core = new Chip8Core();
+        core.setSeed(job.seed());
+        core.setJitEnabled(job.jit());
+        long start = System.nanoTime();
+        String error = null;
+        try {
+            core.loadROM(job.rom());
+            core.runFor(job.cycles(), job.cyclesPerFrame());
+        } catch (RuntimeException e) {
+            error = e.toString();
+        }
+        long elapsed = System.nanoTime() - start;
+        return new Result(job.name(), core.getCycles(), elapsed, core.isWaitingForKeyPress(), core.display.clone(), error);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long cycles = 1_000_000;
+        int cyclesPerFrame = 10;
+        int repeat = 1;
+        long seed = 1;
+        boolean jit = false;
+        boolean quiet = false;
+        List<String> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--cycles" -> cycles = Long.parseLong(args[++i]);
+                case "--ipf" -> cyclesPerFrame = Integer.parseInt(args[++i]);
+                case "--repeat" -> repeat = Integer.parseInt(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                case "--jit" -> jit = true;
+                case "--quiet" -> quiet = true;
+                default -> paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty()) {
+            System.err.println("Usage: java Chip8Farm [--threads N] [--cycles N] [--ipf N] [--repeat N] [--seed N] [--jit] [--quiet] <rom, directory or zip>...");
+            System.exit(1);
+        }
+
+        List<Job> jobs = new ArrayList<>();
+        for (Chip8Rom rom : Chip8Rom.openAll(paths)) {
+            for (int r = 0; r < repeat; r++) {
+                jobs.add(new Job(rom, cycles, cyclesPerFrame, seed + r, jit));
+            }
+        }
+
+        try (Chip8Farm farm = new Chip8Farm(threads)) {
+            long start = System.nanoTime();
+            List<Result> results = farm.run(jobs);
+            long wall = System.nanoTime() - start;
+
+            long totalCycles = 0;
+            long busy = 0;
+            for (Result result : results) {
+                totalCycles += result.cycles();
+                busy += result.nanos();
+                if (!quiet || result.error() != null) {
+                    System.out.printf("%s: %d cycles in %.3f ms%s%n", result.name(), result.cycles(), result.nanos() / 1e6,
+                            result.error() != null ? ", " + result.error() : result.waitingForKey() ? ", waiting for key" : "");
+                }
+            }
+            double seconds = wall / 1e9;
+            System.out.printf("%d runs on %d threads in %.3f s: %.0f IPS total, %.0f IPS per core (%.0f IPS per busy core)%n",
+                    results.size(), farm.getParallelism(), seconds, totalCycles / seconds,
+                    totalCycles / seconds / farm.getParallelism(), totalCycles * 1e9 / Math.max(1, busy));
+        }
+    }
+}
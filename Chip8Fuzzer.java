@@ -0,0 +1,468 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coverage-guided fuzzer for a ROM. An input is one keypad bit mask per 60 Hz frame. Each worker thread has its
+ * own headless core, restores it to the power-on state from a {@link Chip8Snapshot} for every run (only the
+ * memory pages the last run changed are copied back), plays a mutated input as fast as the core runs, and keeps
+ * the input in the shared corpus if it executed an address or drew a sprite that no earlier run had.
+ *
+ * Coverage is read from a {@link Chip8Profiler} attached to each core, which counts executions per address and
+ * DXYN draws per sprite address, so it works the same under the interpreter and the recompiler. Findings are:
+ * <ul>
+ * <li>crashes: stack overflow (2NNN with 16 entries on the stack), stack underflow (00EE on an empty stack),
+ * memory accesses through I past the end of memory (FX33, FX55, FX65, DXYN and the like) and PC leaving
+ * memory;</li>
+ * <li>unknown opcodes and 0NNN machine-code calls, which the core skips, on the first run that executes them,
+ * judged by the opcode as it was when it ran even if the program rewrote it later;</li>
+ * <li>with the recompiler on, JIT divergences: inputs that crash the recompiled core but run cleanly on the
+ * interpreter, which point at a bug in {@link Chip8Jit} rather than in the ROM.</li>
+ * </ul>
+ * Every finding keeps the input that produced it and can be saved as a {@link Chip8Movie} that reproduces it
+ * with {@code Chip8Headless --replay}.
+ */
+public class Chip8Fuzzer {
+    public record Finding(String kind, int address, String detail, short[] input) {
+        @Override
+        public String toString() {
+            return String.format("%s at 0x%03X: %s", kind, address, detail);
+        }
+    }
+
+    private final Chip8Rom rom;
+    private final int frames;
+    private final int cyclesPerFrame;
+    private final long seed;
+    private final boolean jit;
+    private final boolean[] coveredAddresses;
+    private final boolean[] coveredSprites;
+    private int addressCount;
+    private int spriteCount;
+    private final List<short[]> corpus = new CopyOnWriteArrayList<>();
+    private final Map<String, Finding> findings = new LinkedHashMap<>();
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong instructions = new AtomicLong();
+
+    /**
+     * @param frames length of every input in 60 Hz frames
+     * @param cyclesPerFrame instructions per frame
+     * @param seed CXKK generator seed, the same for every run so that findings reproduce
+     */
+    public Chip8Fuzzer(Chip8Rom rom, int frames, int cyclesPerFrame, long seed, boolean jit) {
+        this.rom = rom;
+        this.frames = frames;
+        this.cyclesPerFrame = cyclesPerFrame;
+        this.seed = seed;
+        this.jit = jit;
+        int memorySize = Chip8Core.memorySize(rom.quirks(), rom.size());
+        coveredAddresses = new boolean[memorySize];
+        coveredSprites = new boolean[memorySize];
+        corpus.add(new short[frames]);
+    }
+
+    /**
+     * Fuzzes on {@code threads} threads until {@code deadline} ({@link System#nanoTime()}).
+     */
+    public void run(int threads, long deadline) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(seed ^ (0x9E3779B97F4A7C15L * (i + 1)));
+            Thread thread = new Thread(() -> worker.fuzz(deadline), "CHIP-8 Fuzzer " + i);
+            thread.setDaemon(true);
+            workers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : workers) {
+            thread.join();
+        }
+    }
+
+    public long getRuns() {
+        return runs.get();
+    }
+
+    public long getInstructions() {
+        return instructions.get();
+    }
+
+    public synchronized int getAddressCount() {
+        return addressCount;
+    }
+
+    public synchronized int getSpriteCount() {
+        return spriteCount;
+    }
+
+    public int getCorpusSize() {
+        return corpus.size();
+    }
+
+    public synchronized List<Finding> getFindings() {
+        return List.copyOf(findings.values());
+    }
+
+    private Chip8Core newCore(boolean jit) {
+        Chip8Core core = new Chip8Core(rom.quirks());
+        core.setJitEnabled(jit);
+        core.setSeed(seed);
+        core.loadROM(rom.data());
+        return core;
+    }
+
+    /**
+     * Plays an input from the core's current state: the keys change at the start of each frame, then the frame's
+     * instructions run and the timers tick.
+     */
+    static void play(Chip8Core core, short[] input, int cyclesPerFrame) {
+        int held = 0;
+        for (short frame : input) {
+            held = press(core, frame, held);
+            core.runCycles(cyclesPerFrame);
+            core.tickTimers();
+        }
+    }
+
+    /**
+     * Presses and releases the keys that differ between {@code held} and {@code frame}'s mask, which it returns.
+     */
+    private static int press(Chip8Core core, short frame, int held) {
+        int mask = frame & 0xFFFF;
+        for (int changed = mask ^ held; changed != 0; changed &= changed - 1) {
+            int k = Integer.numberOfTrailingZeros(changed);
+            if ((mask & (1 << k)) != 0) {
+                core.keyDown(k);
+            } else {
+                core.keyUp(k);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Records {@code finding}'s input as a movie that replays from power-on up to the crash, or through the whole
+     * input for the other kinds.
+     */
+    public Chip8Movie movie(Finding finding) {
+        Chip8Core core = new Chip8Core(rom.quirks());
+        Chip8Movie.Recorder recorder = Chip8Movie.record(core, rom.data(), seed);
+        try {
+            play(core, finding.input(), cyclesPerFrame);
+        } catch (RuntimeException e) {
+            // The movie ends at the faulting instruction.
+        }
+        return Chip8Movie.stop(core, recorder);
+    }
+
+    private final class Worker {
+        private final SplittableRandom random;
+        private final Chip8Core core = newCore(jit);
+        private final Chip8Profiler profiler = new Chip8Profiler(core);
+        private final Chip8Snapshot start = Chip8Snapshot.capture(core);
+        private final boolean[] seenAddresses = new boolean[core.memory.length];
+        private final boolean[] seenSprites = new boolean[core.memory.length];
+        private final List<Integer> newAddresses = new ArrayList<>();
+        private final List<Integer> newSprites = new ArrayList<>();
+        /**
+         * The opcode each of {@link #newAddresses} executed, or -1 if it is not known.
+         */
+        private final List<Integer> newOpcodes = new ArrayList<>();
+        /**
+         * Addresses whose opcode {@link #replayOpcodes(short[])} is looking for; all false between runs.
+         */
+        private final boolean[] wanted = new boolean[core.memory.length];
+
+        Worker(long seed) {
+            random = new SplittableRandom(seed);
+            profiler.setEnabled(true);
+        }
+
+        void fuzz(long deadline) {
+            while (System.nanoTime() < deadline) {
+                short[] input = mutate();
+                start.restoreTo(core);
+                RuntimeException crash = null;
+                try {
+                    play(core, input, cyclesPerFrame);
+                } catch (RuntimeException e) {
+                    crash = e;
+                }
+                runs.incrementAndGet();
+                instructions.addAndGet(core.cycles);
+                core.flushCounts();
+                if (collect() || crash != null) {
+                    findOpcodes(input);
+                    report(input, crash);
+                }
+            }
+        }
+
+        /**
+         * Finds the addresses and sprites this worker has not seen before.
+         */
+        private boolean collect() {
+            newAddresses.clear();
+            newSprites.clear();
+            long[] executions = profiler.executions;
+            long[] sprites = profiler.sprites;
+            for (int address = 0; address < executions.length; address++) {
+                if (executions[address] != 0 && !seenAddresses[address]) {
+                    seenAddresses[address] = true;
+                    newAddresses.add(address);
+                }
+                if (sprites[address] != 0 && !seenSprites[address]) {
+                    seenSprites[address] = true;
+                    newSprites.add(address);
+                }
+            }
+            return !newAddresses.isEmpty() || !newSprites.isEmpty();
+        }
+
+        /**
+         * Fills {@link #newOpcodes} with what ran at each new address. Where the run left the memory around an
+         * address as the power-on snapshot has it, that is the snapshot's opcode. Anywhere else the program may
+         * have written the instruction itself, or overwritten it after running it, so the input is replayed on
+         * the interpreter to catch the opcode at the moment it executes.
+         */
+        private void findOpcodes(short[] input) {
+            newOpcodes.clear();
+            boolean replay = false;
+            for (int address : newAddresses) {
+                int from = address & -Chip8Snapshot.PAGE;
+                int to = Math.min(start.memory.length, (address + 2 + Chip8Snapshot.PAGE - 1) & -Chip8Snapshot.PAGE);
+                if (address + 1 >= start.memory.length) {
+                    newOpcodes.add(-1);
+                } else if (Arrays.equals(start.memory, from, to, core.memory, from, to)) {
+                    newOpcodes.add(((start.memory[address] & 0xFF) << 8) | (start.memory[address + 1] & 0xFF));
+                } else {
+                    newOpcodes.add(-1);
+                    wanted[address] = true;
+                    replay = true;
+                }
+            }
+            if (replay) {
+                replayOpcodes(input);
+            }
+        }
+
+        /**
+         * Replays {@code input} one instruction at a time on an interpreter core, moving the opcode found at each
+         * {@link #wanted} address on its first execution into {@link #newOpcodes}, and clears {@link #wanted}.
+         */
+        private void replayOpcodes(short[] input) {
+            Chip8Core probe = newCore(false);
+            int held = 0;
+            try {
+                for (short frame : input) {
+                    held = press(probe, frame, held);
+                    for (int i = 0; i < cyclesPerFrame && !probe.isWaitingForKeyPress(); i++) {
+                        int pc = probe.pc;
+                        if (pc + 1 < wanted.length && wanted[pc]) {
+                            wanted[pc] = false;
+                            int opcode = ((probe.memory[pc] & 0xFF) << 8) | (probe.memory[pc + 1] & 0xFF);
+                            newOpcodes.set(newAddresses.indexOf(pc), opcode);
+                        }
+                        probe.emulateCycle();
+                    }
+                    probe.tickTimers();
+                }
+            } catch (RuntimeException e) {
+                // The run crashed there too; what it reached before is known.
+            }
+            for (int address : newAddresses) {
+                wanted[address] = false;
+            }
+        }
+
+        private void report(short[] input, RuntimeException crash) {
+            Finding crashFinding = crash != null ? classify(input, crash) : null;
+            synchronized (Chip8Fuzzer.this) {
+                boolean novel = false;
+                for (int i = 0; i < newAddresses.size(); i++) {
+                    int address = newAddresses.get(i);
+                    if (!coveredAddresses[address]) {
+                        coveredAddresses[address] = true;
+                        addressCount++;
+                        novel = true;
+                        checkOpcode(address, newOpcodes.get(i), input);
+                    }
+                }
+                for (int address : newSprites) {
+                    if (!coveredSprites[address]) {
+                        coveredSprites[address] = true;
+                        spriteCount++;
+                        novel = true;
+                    }
+                }
+                if (novel) {
+                    corpus.add(input);
+                }
+                if (crashFinding != null) {
+                    findings.putIfAbsent(crashFinding.kind() + crashFinding.address(), crashFinding);
+                }
+            }
+        }
+
+        private void checkOpcode(int address, int opcode, short[] input) {
+            if (opcode < 0) {
+                return;
+            }
+            int op = Chip8Decoder.operation(opcode);
+            if (op == Chip8Decoder.OP_INVALID || op == Chip8Decoder.OP_SYS) {
+                String kind = op == Chip8Decoder.OP_INVALID ? "unknown opcode" : "machine code call";
+                findings.putIfAbsent(kind + address, new Finding(kind, address, String.format("%04X", opcode), input));
+            }
+        }
+
+        /**
+         * Names the cause of a crash from the instruction that faulted. Compiled blocks do not keep PC exact, so
+         * with the recompiler on, the input is first replayed on the interpreter; if that run does not crash, the
+         * recompiler is at fault and the finding is a JIT divergence at the recompiled core's PC.
+         */
+        private Finding classify(short[] input, RuntimeException crash) {
+            Chip8Core probe = core;
+            if (jit) {
+                probe = newCore(false);
+                try {
+                    play(probe, input, cyclesPerFrame);
+                    return new Finding("jit divergence", core.pc, crash.toString(), input);
+                } catch (RuntimeException e) {
+                    crash = e;
+                }
+            }
+            if (crash instanceof IllegalStateException) {
+                return new Finding("pc out of range", probe.pc, crash.getMessage(), input);
+            }
+            if (!(crash instanceof ArrayIndexOutOfBoundsException)) {
+                return new Finding("crash", probe.pc, crash.toString(), input);
+            }
+            int address = probe.pc - 2;
+            int opcode = ((probe.memory[address] & 0xFF) << 8) | (probe.memory[address + 1] & 0xFF);
+            String kind = switch (Chip8Decoder.operation(opcode)) {
+                case Chip8Decoder.OP_CALL -> "stack overflow";
+                case Chip8Decoder.OP_RET -> "stack underflow";
+                default -> "memory out of range";
+            };
+            return new Finding(kind, address, String.format("%04X %s, I=0x%X", opcode,
+                    Chip8Decoder.disassemble(Chip8Decoder.decode(opcode)), probe.I), input);
+        }
+
+        /**
+         * Picks a corpus entry and changes one to four spans of frames: holds a random key (sometimes two) or no
+         * key, toggles one key, or splices in the rest of another entry.
+         */
+        private short[] mutate() {
+            short[] input = corpus.get(random.nextInt(corpus.size())).clone();
+            int changes = 1 + random.nextInt(4);
+            for (int i = 0; i < changes; i++) {
+                int from = random.nextInt(frames);
+                int to = Math.min(frames, from + 1 + random.nextInt(60));
+                switch (random.nextInt(4)) {
+                    case 0 -> {
+                        short mask = (short) (1 << random.nextInt(16));
+                        if (random.nextInt(4) == 0) {
+                            mask |= (short) (1 << random.nextInt(16));
+                        }
+                        for (int f = from; f < to; f++) {
+                            input[f] = mask;
+                        }
+                    }
+                    case 1 -> {
+                        short key = (short) (1 << random.nextInt(16));
+                        for (int f = from; f < to; f++) {
+                            input[f] ^= key;
+                        }
+                    }
+                    case 2 -> {
+                        short[] other = corpus.get(random.nextInt(corpus.size()));
+                        System.arraycopy(other, from, input, from, frames - from);
+                    }
+                    default -> {
+                        for (int f = from; f < to; f++) {
+                            input[f] = 0;
+                        }
+                    }
+                }
+            }
+            return input;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int seconds = 10;
+        int frames = 600;
+        int cyclesPerFrame = 10;
+        long seed = 1;
+        boolean jit = false;
+        Path out = null;
+        String path = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--seconds" -> seconds = Integer.parseInt(args[++i]);
+                case "--frames" -> frames = Integer.parseInt(args[++i]);
+                case "--ipf" -> cyclesPerFrame = Integer.parseInt(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                case "--jit" -> jit = true;
+                case "--out" -> out = Path.of(args[++i]);
+                default -> path = args[i];
+            }
+        }
+        if (path == null) {
+            System.err.println("Usage: java Chip8Fuzzer [--threads N] [--seconds N] [--frames N] [--ipf N] [--seed N] [--jit] [--out directory] <rom>");
+            System.exit(1);
+        }
+
+        Chip8Rom rom = Chip8Rom.open(Path.of(path));
+        Chip8Fuzzer fuzzer = new Chip8Fuzzer(rom, frames, cyclesPerFrame, seed, jit);
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        Thread progress = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(1000);
+                    double elapsed = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("%.0f s: %d runs, %d addresses, %d sprites, corpus %d, %d findings%n", elapsed,
+                            fuzzer.getRuns(), fuzzer.getAddressCount(), fuzzer.getSpriteCount(), fuzzer.getCorpusSize(),
+                            fuzzer.getFindings().size());
+                }
+            } catch (InterruptedException e) {
+                // Done.
+            }
+        });
+        progress.setDaemon(true);
+        progress.start();
+        fuzzer.run(threads, end);
+        progress.interrupt();
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s: %d runs on %d threads in %.1f s, %.0f IPS total, %.0f IPS per thread%n", rom.name(),
+                fuzzer.getRuns(), threads, elapsed, fuzzer.getInstructions() / elapsed,
+                fuzzer.getInstructions() / elapsed / threads);
+        System.out.printf("Coverage: %d addresses, %d sprites, corpus of %d inputs%n", fuzzer.getAddressCount(),
+                fuzzer.getSpriteCount(), fuzzer.getCorpusSize());
+        List<Finding> findings = fuzzer.getFindings();
+        if (out != null && !findings.isEmpty()) {
+            Files.createDirectories(out);
+        }
+        for (int i = 0; i < findings.size(); i++) {
+            Finding finding = findings.get(i);
+            System.out.println(finding);
+            if (out != null) {
+                Path file = out.resolve(String.format("finding-%d.c8m", i));
+                fuzzer.movie(finding).save(file);
+                System.out.printf("  replay: java Chip8Headless --replay %s \"%s\"%n", file, path);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.Path;
+
+public class Chip8Headless {
+    private static final int DEFAULT_CYCLES = 1_000_000;
+    private static final int DEFAULT_CYCLES_PER_FRAME = 10;
+    private static final long DEFAULT_SEED = 1;
+
+    public static void main(String[] args) throws IOException {
+        long cycles = DEFAULT_CYCLES;
+        boolean dump = false;
+        boolean jit = false;
+        boolean profile = false;
+        Chip8Movie movie = null;
+        Chip8Quirks quirks = null;
+        int cyclesPerFrame = DEFAULT_CYCLES_PER_FRAME;
+        long seed = DEFAULT_SEED;
+        int romCount = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--cycles" -> cycles = Long.parseLong(args[++i]);
+                case "--dump" -> dump = true;
+                case "--jit" -> jit = true;
+                case "--profile" -> profile = true;
+                case "--replay" -> movie = Chip8Movie.load(Path.of(args[++i]));
+                case "--ipf" -> cyclesPerFrame = Integer.parseInt(args[++i]);
+                case "--quirks" -> quirks = Chip8Quirks.named(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> {
+                    run(Path.of(args[i]), cycles, cyclesPerFrame, seed, dump, jit, profile, movie, quirks);
+                    romCount++;
+                }
+            }
+        }
+
+        if (romCount == 0) {
+            System.err.println("Usage: java Chip8Headless [--cycles N] [--ipf N] [--seed N] [--dump] [--jit] [--profile] [--replay movie] [--quirks profile] <rom>...");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs in emulated time: the timers tick once every {@code cyclesPerFrame} instructions, as they would at
+     * {@code cyclesPerFrame * 60} IPS, however fast the host actually executes. The CXKK generator starts from
+     * {@code seed}, so repeated runs of a ROM execute the same instructions and their timings compare.
+     * With a movie, its recorded key events and timer ticks drive the run instead and the budget is ignored.
+     * Without a quirks profile, the one the ROM database lists for the ROM is used. A movie replays with the profile
+     * it was recorded with.
+     */
+    private static void run(Path rom, long cycles, int cyclesPerFrame, long seed, boolean dump, boolean jit,
+            boolean profile, Chip8Movie movie, Chip8Quirks quirks) throws IOException {
+        Chip8Core core = new Chip8Core();
+        core.setSeed(seed);
+        core.setJitEnabled(jit);
+        Chip8Rom program = Chip8Rom.open(rom);
+        byte[] data = program.data();
+        core.loadROM(program);
+        if (quirks != null) {
+            core.setQuirks(quirks);
+        }
+        Chip8Profiler profiler = new Chip8Profiler(core);
+        profiler.setEnabled(profile);
+
+        long start = System.nanoTime();
+        long executed = movie != null ? movie.replay(core, data) : core.runFor(cycles, cyclesPerFrame);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%s: %d cycles in %.3f ms (%.0f IPS)%s%n", rom.getFileName(), executed, elapsed / 1e6,
+                executed * 1e9 / Math.max(1, elapsed), core.isWaitingForKeyPress() ? ", waiting for key" : "");
+        if (dump) {
+            System.out.print(render(core));
+        }
+        if (profile) {
+            profiler.writeTo(new OutputStreamWriter(System.out));
+        }
+    }
+
+    static String render(Chip8Core core) {
+        StringBuilder sb = new StringBuilder((core.getWidth() + 1) * core.getHeight());
+        for (int y = 0; y < core.getHeight(); y++) {
+            for (int x = 0; x < core.getWidth(); x++) {
+                sb.append(".#+%".charAt(core.getColor(x, y)));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer, single-consumer queue of timestamped key events. The event dispatch thread offers
+ * events as they arrive; the thread running the core applies them between instructions, so the keypad and FX0A
+ * state are only ever written by that thread. Each side publishes its index with a release store and reads the
+ * other side's with an acquire load; no locks are taken and offering never allocates.
+ */
+public class Chip8Input {
+    private static final int CAPACITY = 256;
+    private static final int PRESSED = 0x10;
+
+    private final long[] timestamps = new long[CAPACITY];
+    private final byte[] events = new byte[CAPACITY];
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private long producerTail;
+    private long cachedHead;
+
+    /**
+     * Queues a key event. Only one thread may call this.
+     *
+     * @param timestamp {@link System#nanoTime()} when the event happened
+     * @return false if the queue is full and the event was dropped
+     */
+    public boolean offer(int key, boolean pressed, long timestamp) {
+        long t = producerTail;
+        if (t - cachedHead >= CAPACITY) {
+            cachedHead = head.get();
+            if (t - cachedHead >= CAPACITY) {
+                return false;
+            }
+        }
+        int index = (int) t & (CAPACITY - 1);
+        timestamps[index] = timestamp;
+        events[index] = (byte) (key | (pressed ? PRESSED : 0));
+        producerTail = t + 1;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Returns the timestamp of the oldest queued event, or {@link Long#MAX_VALUE} if there is none.
+     */
+    public long peekTimestamp() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return Long.MAX_VALUE;
+        }
+        return timestamps[(int) h & (CAPACITY - 1)];
+    }
+
+    /**
+     * Applies the oldest queued event to {@code core}. Must be called by the thread running the core.
+     *
+     * @return false if the queue was empty
+     */
+    public boolean applyNext(Chip8Core core) {
+        long h = head.get();
+        if (h == tail.get()) {
+            return false;
+        }
+        int event = events[(int) h & (CAPACITY - 1)];
+        head.lazySet(h + 1);
+        if ((event & PRESSED) != 0) {
+            core.keyDown(event & 0xF);
+        } else {
+            core.keyUp(event & 0xF);
+        }
+        return true;
+    }
+
+    public void applyAll(Chip8Core core) {
+        while (applyNext(core)) {
+        }
+    }
+}
@@ -0,0 +1,936 @@
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Basic-block recompiler. Straight-line runs of CHIP-8 code that are entered often enough are translated into
+ * hidden JVM classes, so HotSpot can inline them and keep guest registers in locals. A block runs from its entry
+ * address up to and including the first jump, call, return or skip, and also ends after FX33/FX55/5XY2 so that a
+ * write into compiled code is noticed before the next block is entered. A skip directly followed by 1NNN, the
+ * idiom CHIP-8 programs use for a conditional jump, stays in the block and the pair ends it. FX0A and the four-byte
+ * F000 NNNN are never compiled.
+ *
+ * Guest registers are loaded into JVM locals on first use and written back before any helper call that reads or
+ * writes them and at the end of the block. Flags and skips are computed arithmetically, so a block's code is
+ * straight-line, with one exception: a block whose jump can lead back to its own entry, such as a busy-wait on the
+ * delay timer, repeats inside the compiled method for as long as it keeps jumping there and the caller's
+ * instruction budget allows. Without that, a loop of a few instructions would cost a dispatch per iteration, which
+ * is slower than interpreting it. Such a block has the one branch target (and its exit) described by a stack map
+ * frame; the others need none.
+ */
+final class Chip8Jit {
+    /**
+     * A compiled block. Executes the whole block, repeating it while it loops back to its entry and another pass fits
+     * in {@code budget}, stores the next PC in the core and returns the instruction count.
+     */
+    interface Block {
+        int execute(Chip8Core core, int budget);
+    }
+
+    /**
+     * Entries before a block is compiled. Defining its class and letting HotSpot warm it up costs as much as
+     * interpreting a few thousand instructions, so code has to prove itself hot over a long run first; a lower
+     * threshold makes short runs, which reach it with code that never repeats much, slower than the interpreter.
+     */
+    private static final int HOT_THRESHOLD = 2000;
+    private static final int MAX_BLOCK_LENGTH = 64;
+    private static final int MAX_RECOMPILES = 4;
+
+    private final Chip8Core core;
+    private final Block[] blocks;
+    private final int[] blockLength;
+    private final int[] heat;
+    private final byte[] recompiles;
+    private final boolean[] covered;
+    private final byte[][] blockOps;
+    private final long[] executions;
+    /**
+     * Passes through a block that ended with its final 1NNN skipped by the skip before it.
+     */
+    private final long[] skippedJumps;
+
+    Chip8Jit(Chip8Core core) {
+        this.core = core;
+        int size = core.memory.length;
+        blocks = new Block[size];
+        blockLength = new int[size];
+        heat = new int[size];
+        recompiles = new byte[size];
+        covered = new boolean[size];
+        blockOps = new byte[size][];
+        executions = new long[size];
+        skippedJumps = new long[size];
+    }
+
+    int run(int n) {
+        int executed = 0;
+        boolean atBlockEntry = true;
+        while (executed < n && !core.waitingForKeyPress) {
+            int pc = core.pc;
+            Block block = blocks[pc];
+            int length = blockLength[pc];
+            if (block != null && length <= n - executed) {
+                int count = block.execute(core, n - executed);
+                int passes = (count + length - 1) / length;
+                core.cycles += count;
+                executions[pc] += passes;
+                skippedJumps[pc] += passes * length - count;
+                executed += count;
+                atBlockEntry = true;
+                continue;
+            }
+            if (block == null && atBlockEntry && ++heat[pc] == HOT_THRESHOLD) {
+                compile(pc);
+                if (blocks[pc] != null) {
+                    continue;
+                }
+            }
+            atBlockEntry = endsBlock(core.decodedAt(pc) >>> 16);
+            core.emulateCycle();
+            executed++;
+        }
+        return executed;
+    }
+
+    void clear() {
+        core.flushCounts();
+        Arrays.fill(blocks, null);
+        Arrays.fill(blockLength, 0);
+        Arrays.fill(heat, 0);
+        Arrays.fill(recompiles, (byte) 0);
+        Arrays.fill(covered, false);
+    }
+
+    /**
+     * Drops every block that contains an instruction byte in {@code [from, to)}.
+     */
+    void invalidate(int from, int to) {
+        boolean hit = false;
+        for (int a = from; a < to && !hit; a++) {
+            hit = covered[a];
+        }
+        if (!hit) {
+            return;
+        }
+        core.flushCounts();
+        Arrays.fill(covered, false);
+        for (int start = 0; start < blocks.length; start++) {
+            if (blocks[start] == null) {
+                continue;
+            }
+            int end = start + blockLength[start] * 2;
+            if (start < to && from < end) {
+                blocks[start] = null;
+                blockLength[start] = 0;
+                heat[start] = ++recompiles[start] >= MAX_RECOMPILES ? Integer.MIN_VALUE : 0;
+            } else {
+                Arrays.fill(covered, start, end, true);
+            }
+        }
+    }
+
+    /**
+     * Adds the instructions executed by compiled blocks since the last call to the per-operation {@code opcodes}
+     * and per-address {@code addresses} counts, either of which may be null to discard them. Blocks only count
+     * their own executions; the totals are worked out here.
+     */
+    void flushCounts(long[] opcodes, long[] addresses) {
+        for (int start = 0; start < executions.length; start++) {
+            long n = executions[start];
+            if (n == 0) {
+                continue;
+            }
+            long skipped = skippedJumps[start];
+            executions[start] = 0;
+            skippedJumps[start] = 0;
+            byte[] ops = blockOps[start];
+            for (int i = 0; i < ops.length; i++) {
+                long count = i == ops.length - 1 ? n - skipped : n;
+                if (opcodes != null) {
+                    opcodes[ops[i]] += count;
+                }
+                if (addresses != null) {
+                    addresses[start + i * 2] += count;
+                }
+            }
+        }
+    }
+
+    private static boolean endsBlock(int op) {
+        return switch (op) {
+            case Chip8Decoder.OP_JP, Chip8Decoder.OP_CALL, Chip8Decoder.OP_RET, Chip8Decoder.OP_JP_V0,
+                 Chip8Decoder.OP_SE_VX_KK, Chip8Decoder.OP_SNE_VX_KK, Chip8Decoder.OP_SE_VX_VY,
+                 Chip8Decoder.OP_SNE_VX_VY, Chip8Decoder.OP_SKP, Chip8Decoder.OP_SKNP, Chip8Decoder.OP_LD_VX_K,
+                 Chip8Decoder.OP_BCD, Chip8Decoder.OP_STORE, Chip8Decoder.OP_JP_VX,
+                 Chip8Decoder.OP_STORE_KEEP_I, Chip8Decoder.OP_EXIT, Chip8Decoder.OP_SAVE_RANGE,
+                 Chip8Decoder.OP_SE_VX_KK_LONG, Chip8Decoder.OP_SNE_VX_KK_LONG, Chip8Decoder.OP_SE_VX_VY_LONG,
+                 Chip8Decoder.OP_SNE_VX_VY_LONG, Chip8Decoder.OP_SKP_LONG, Chip8Decoder.OP_SKNP_LONG -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Two-byte skips, which {@link #compile(int)} pairs with a following 1NNN.
+     */
+    private static boolean isSkip(int op) {
+        return switch (op) {
+            case Chip8Decoder.OP_SE_VX_KK, Chip8Decoder.OP_SNE_VX_KK, Chip8Decoder.OP_SE_VX_VY,
+                 Chip8Decoder.OP_SNE_VX_VY, Chip8Decoder.OP_SKP, Chip8Decoder.OP_SKNP -> true;
+            default -> false;
+        };
+    }
+
+    private void compile(int start) {
+        int[] ops = new int[MAX_BLOCK_LENGTH];
+        int length = 0;
+        int address = start;
+        while (length < MAX_BLOCK_LENGTH && address + 1 < core.memory.length) {
+            int d = core.decodedAt(address);
+            int op = d >>> 16;
+            if (op == Chip8Decoder.OP_LD_VX_K || op == Chip8Decoder.OP_LD_I_LONG) {
+                break;
+            }
+            ops[length++] = d;
+            address += 2;
+            if (endsBlock(op)) {
+                if (isSkip(op) && length < MAX_BLOCK_LENGTH && address + 1 < core.memory.length
+                        && core.decodedAt(address) >>> 16 == Chip8Decoder.OP_JP) {
+                    ops[length++] = core.decodedAt(address);
+                }
+                break;
+            }
+        }
+        if (length == 0) {
+            heat[start] = Integer.MIN_VALUE;
+            return;
+        }
+
+        try {
+            byte[] bytes = new BlockEmitter(start, ops, length).emit();
+            Class<?> type = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+            blocks[start] = (Block) type.getDeclaredConstructor().newInstance();
+            blockLength[start] = length;
+            blockOps[start] = new byte[length];
+            for (int i = 0; i < length; i++) {
+                blockOps[start][i] = (byte) (ops[i] >>> 16);
+            }
+            Arrays.fill(covered, start, start + length * 2, true);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            heat[start] = Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Writes a class file with a single {@code execute(Chip8Core)} method for one block.
+     */
+    private static final class BlockEmitter {
+        private static final String CORE = "Chip8Core";
+        private static final String CORE_DESC = "LChip8Core;";
+
+        private static final int THIS = 0, CORE_LOCAL = 1, BUDGET_LOCAL = 2, V_LOCAL = 3, COUNT_LOCAL = 4,
+                SKIPPED_LOCAL = 5, REG_BASE = 6, I_LOCAL = 22, PC_LOCAL = 23, TEMP_LOCAL = 24, MAX_LOCALS = 25;
+        private static final int I_REG = 16;
+
+        private final int start;
+        private final int[] ops;
+        private final int length;
+        /**
+         * The block ends with a skip and 1NNN, so its last instruction may not execute.
+         */
+        private final boolean pairedJump;
+        /**
+         * The final jump can lead back to {@code start}.
+         */
+        private final boolean loops;
+        private final ByteArrayOutputStream stackMap = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final Map<String, Integer> poolIndex = new HashMap<>();
+        private int poolCount = 1;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final boolean[] loaded = new boolean[17];
+        private final boolean[] dirty = new boolean[17];
+
+        BlockEmitter(int start, int[] ops, int length) {
+            this.start = start;
+            this.ops = ops;
+            this.length = length;
+            int last = ops[length - 1];
+            pairedJump = length >= 2 && isSkip(ops[length - 2] >>> 16) && last >>> 16 == Chip8Decoder.OP_JP;
+            loops = last >>> 16 == Chip8Decoder.OP_JP && (last & 0xFFF) == start;
+        }
+
+        byte[] emit() {
+            int thisClass = classRef("Chip8Block");
+            int superClass = classRef("java/lang/Object");
+            int blockInterface = classRef("Chip8Jit$Block");
+            int init = utf8("<init>");
+            int voidDesc = utf8("()V");
+            int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+            int execute = utf8("execute");
+            int executeDesc = utf8("(" + CORE_DESC + "I)I");
+            int codeAttr = utf8("Code");
+
+            byte[] ctor = {0x2A, (byte) 0xB7, (byte) (objectInit >> 8), (byte) objectInit, (byte) 0xB1};
+            byte[] body = body();
+            byte[] attributes = new byte[0];
+            if (stackMap.size() > 0) {
+                ByteArrayOutputStream attribute = new ByteArrayOutputStream();
+                u2(attribute, utf8("StackMapTable"));
+                u4(attribute, 2 + stackMap.size());
+                u2(attribute, 2);
+                attribute.writeBytes(stackMap.toByteArray());
+                attributes = attribute.toByteArray();
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            u4(out, 0xCAFEBABE);
+            u2(out, 0);
+            u2(out, 52);
+            u2(out, poolCount);
+            out.writeBytes(pool.toByteArray());
+            u2(out, 0x0011); // public final
+            u2(out, thisClass);
+            u2(out, superClass);
+            u2(out, 1);
+            u2(out, blockInterface);
+            u2(out, 0);
+            u2(out, 2);
+            method(out, 0x0001, init, voidDesc, codeAttr, 1, 1, ctor, new byte[0]);
+            method(out, 0x0001, execute, executeDesc, codeAttr, 8, MAX_LOCALS, body, attributes);
+            u2(out, 0);
+            return out.toByteArray();
+        }
+
+        /**
+         * Straight-line blocks store PC and return their length (less one if the paired jump was skipped). A looping
+         * block is wrapped in
+         * <pre>
+         * count = 0
+         * loop: body; count += pass length; core.pc = pc
+         *       if (pc != start) goto exit
+         *       if (count + length &lt;= budget) goto loop
+         * exit: return count
+         * </pre>
+         * Registers are written back at the end of every pass and loaded again by the next, so the code at
+         * {@code loop} sees the same state on entry and on the back edge.
+         */
+        private byte[] body() {
+            op(0x2B);
+            fieldInsn(0xB4, "V", "[B");
+            astore(V_LOCAL);
+
+            int loop = -1;
+            if (loops) {
+                push(0);
+                istore(COUNT_LOCAL);
+                loop = code.size();
+            }
+            int address = start;
+            for (int i = 0; i < length; i++) {
+                address += 2;
+                if (pairedJump && i == length - 1) {
+                    pairedJump(ops[i], address);
+                } else {
+                    instruction(ops[i], address);
+                }
+            }
+            if (!endsBlock(ops[length - 1] >>> 16)) {
+                push(address);
+                istore(PC_LOCAL);
+            }
+
+            flushAll();
+            op(0x2B);
+            iload(PC_LOCAL);
+            fieldInsn(0xB5, "pc", "I");
+            push(length);
+            if (pairedJump) {
+                iload(SKIPPED_LOCAL);
+                op(0x64);
+            }
+            if (!loops) {
+                op(0xAC);
+                return code.toByteArray();
+            }
+
+            iload(COUNT_LOCAL);
+            op(0x60);
+            istore(COUNT_LOCAL);
+            iload(PC_LOCAL);
+            push(start);
+            int toExit = code.size();
+            op(0xA0);
+            u2(code, 0);
+            iload(COUNT_LOCAL);
+            push(length);
+            op(0x60);
+            iload(BUDGET_LOCAL);
+            int backEdge = code.size();
+            op(0xA4);
+            u2(code, loop - backEdge);
+            int exit = code.size();
+            iload(COUNT_LOCAL);
+            op(0xAC);
+
+            byte[] bytes = code.toByteArray();
+            bytes[toExit + 1] = (byte) ((exit - toExit) >> 8);
+            bytes[toExit + 2] = (byte) (exit - toExit);
+
+            // Both targets have the locals live before the loop: core, budget, V and count.
+            stackMap.write(255);
+            u2(stackMap, loop);
+            u2(stackMap, 5);
+            stackMap.write(0);
+            stackMap.write(7);
+            u2(stackMap, classRef(CORE));
+            stackMap.write(1);
+            stackMap.write(7);
+            u2(stackMap, classRef("[B"));
+            stackMap.write(1);
+            u2(stackMap, 0);
+            stackMap.write(251);
+            u2(stackMap, exit - loop - 1);
+            return bytes;
+        }
+
+        /**
+         * The 1NNN after a skip. The skip left {@code next - 2} (not taken) or {@code next} (taken) in
+         * {@code PC_LOCAL}; this keeps {@code skipped = (pc - (next - 2)) >> 1} and jumps to
+         * {@code nnn + skipped * (next - nnn)}, without branching.
+         */
+        private void pairedJump(int d, int next) {
+            int nnn = d & 0xFFF;
+            iload(PC_LOCAL);
+            push(next - 2);
+            op(0x64);
+            push(1);
+            op(0x7A);
+            istore(SKIPPED_LOCAL);
+            iload(SKIPPED_LOCAL);
+            push(next - nnn);
+            op(0x68);
+            push(nnn);
+            op(0x60);
+            istore(PC_LOCAL);
+        }
+
+        /**
+         * Emits one instruction. Instructions that end the block leave the next PC in {@code PC_LOCAL}.
+         */
+        private void instruction(int d, int next) {
+            int x = (d >> 8) & 0xF;
+            int y = (d >> 4) & 0xF;
+            int kk = d & 0xFF;
+            int nnn = d & 0xFFF;
+            switch (d >>> 16) {
+                case Chip8Decoder.OP_CLS -> helper("clearScreen", "()V");
+                case Chip8Decoder.OP_RET -> {
+                    op(0x2B);
+                    invoke("ret", "()I");
+                    istore(PC_LOCAL);
+                }
+                case Chip8Decoder.OP_JP -> {
+                    push(nnn);
+                    istore(PC_LOCAL);
+                }
+                case Chip8Decoder.OP_CALL -> {
+                    op(0x2B);
+                    push(next);
+                    push(nnn);
+                    invoke("call", "(II)I");
+                    istore(PC_LOCAL);
+                }
+                case Chip8Decoder.OP_SE_VX_KK -> skip(next, () -> { reg(x); push(kk); op(0x82); }, true, 1);
+                case Chip8Decoder.OP_SNE_VX_KK -> skip(next, () -> { reg(x); push(kk); op(0x82); }, false, 1);
+                case Chip8Decoder.OP_SE_VX_VY -> skip(next, () -> { reg(x); reg(y); op(0x82); }, true, 1);
+                case Chip8Decoder.OP_SNE_VX_VY -> skip(next, () -> { reg(x); reg(y); op(0x82); }, false, 1);
+                case Chip8Decoder.OP_SKP -> keySkip(next, x, true, 1);
+                case Chip8Decoder.OP_SKNP -> keySkip(next, x, false, 1);
+                case Chip8Decoder.OP_SE_VX_KK_LONG -> skip(next, () -> { reg(x); push(kk); op(0x82); }, true, 2);
+                case Chip8Decoder.OP_SNE_VX_KK_LONG -> skip(next, () -> { reg(x); push(kk); op(0x82); }, false, 2);
+                case Chip8Decoder.OP_SE_VX_VY_LONG -> skip(next, () -> { reg(x); reg(y); op(0x82); }, true, 2);
+                case Chip8Decoder.OP_SNE_VX_VY_LONG -> skip(next, () -> { reg(x); reg(y); op(0x82); }, false, 2);
+                case Chip8Decoder.OP_SKP_LONG -> keySkip(next, x, true, 2);
+                case Chip8Decoder.OP_SKNP_LONG -> keySkip(next, x, false, 2);
+                case Chip8Decoder.OP_LD_VX_KK -> {
+                    push(kk);
+                    setReg(x);
+                }
+                case Chip8Decoder.OP_ADD_VX_KK -> {
+                    reg(x);
+                    push(kk);
+                    op(0x60);
+                    maskByte();
+                    setReg(x);
+                }
+                case Chip8Decoder.OP_LD_VX_VY -> {
+                    reg(y);
+                    setReg(x);
+                }
+                case Chip8Decoder.OP_OR -> binary(x, y, 0x80);
+                case Chip8Decoder.OP_AND -> binary(x, y, 0x7E);
+                case Chip8Decoder.OP_XOR -> binary(x, y, 0x82);
+                case Chip8Decoder.OP_ADD_VX_VY -> {
+                    reg(x);
+                    reg(y);
+                    op(0x60);
+                    istore(TEMP_LOCAL);
+                    iload(TEMP_LOCAL);
+                    push(8);
+                    op(0x7C);
+                    setReg(0xF);
+                    iload(TEMP_LOCAL);
+                    maskByte();
+                    setReg(x);
+                }
+                case Chip8Decoder.OP_SUB -> subtract(x, y, x, y);
+                case Chip8Decoder.OP_SUBN -> subtract(x, y, y, x);
+                case Chip8Decoder.OP_SHR -> {
+                    reg(x);
+                    push(1);
+                    op(0x7E);
+                    setReg(0xF);
+                    reg(x);
+                    push(1);
+                    op(0x7C);
+                    setReg(x);
+                }
+                case Chip8Decoder.OP_SHL -> {
+                    reg(x);
+                    push(7);
+                    op(0x7C);
+                    setReg(0xF);
+                    reg(x);
+                    push(1);
+                    op(0x78);
+                    maskByte();
+                    setReg(x);
+                }
+                case Chip8Decoder.OP_LD_I -> {
+                    push(nnn);
+                    setReg(I_REG);
+                }
+                case Chip8Decoder.OP_JP_V0 -> {
+                    push(nnn);
+                    reg(0);
+                    op(0x60);
+                    istore(PC_LOCAL);
+                }
+                case Chip8Decoder.OP_RND -> {
+                    op(0x2B);
+                    invoke("randomByte", "()I");
+                    push(kk);
+                    op(0x7E);
+                    setReg(x);
+                }
+                case Chip8Decoder.OP_DRW -> {
+                    helper("drawSprite", "(III)V", x, y, d & 0xF);
+                    loaded[0xF] = false;
+                }
+                case Chip8Decoder.OP_LD_VX_DT -> {
+                    op(0x2B);
+                    fieldInsn(0xB4, "delayTimer", "I");
+                    setReg(x);
+                }
+                case Chip8Decoder.OP_LD_DT -> {
+                    op(0x2B);
+                    reg(x);
+                    fieldInsn(0xB5, "delayTimer", "I");
+                }
+                case Chip8Decoder.OP_LD_ST -> {
+                    op(0x2B);
+                    reg(x);
+                    fieldInsn(0xB5, "soundTimer", "I");
+                }
+                case Chip8Decoder.OP_ADD_I -> {
+                    reg(I_REG);
+                    reg(x);
+                    op(0x60);
+                    setReg(I_REG);
+                }
+                case Chip8Decoder.OP_LD_F -> {
+                    reg(x);
+                    push(0xF);
+                    op(0x7E);
+                    push(5);
+                    op(0x68);
+                    push(Chip8Core.FONTSET_START);
+                    op(0x60);
+                    setReg(I_REG);
+                }
+                case Chip8Decoder.OP_BCD -> {
+                    helper("storeBcd", "(I)V", x);
+                    push(next);
+                    istore(PC_LOCAL);
+                }
+                case Chip8Decoder.OP_STORE -> {
+                    helper("storeRegisters", "(I)V", x);
+                    loaded[I_REG] = false;
+                    push(next);
+                    istore(PC_LOCAL);
+                }
+                case Chip8Decoder.OP_LOAD -> {
+                    helper("loadRegisters", "(I)V", x);
+                    for (int r = 0; r <= x; r++) {
+                        loaded[r] = false;
+                    }
+                    loaded[I_REG] = false;
+                }
+                case Chip8Decoder.OP_OR_VF -> {
+                    binary(x, y, 0x80);
+                    push(0);
+                    setReg(0xF);
+                }
+                case Chip8Decoder.OP_AND_VF -> {
+                    binary(x, y, 0x7E);
+                    push(0);
+                    setReg(0xF);
+                }
+                case Chip8Decoder.OP_XOR_VF -> {
+                    binary(x, y, 0x82);
+                    push(0);
+                    setReg(0xF);
+                }
+                case Chip8Decoder.OP_SHR_VY -> {
+                    reg(y);
+                    istore(TEMP_LOCAL);
+                    iload(TEMP_LOCAL);
+                    push(1);
+                    op(0x7C);
+                    setReg(x);
+                    iload(TEMP_LOCAL);
+                    push(1);
+                    op(0x7E);
+                    setReg(0xF);
+                }
+                case Chip8Decoder.OP_SHL_VY -> {
+                    reg(y);
+                    istore(TEMP_LOCAL);
+                    iload(TEMP_LOCAL);
+                    push(1);
+                    op(0x78);
+                    maskByte();
+                    setReg(x);
+                    iload(TEMP_LOCAL);
+                    push(7);
+                    op(0x7C);
+                    setReg(0xF);
+                }
+                case Chip8Decoder.OP_JP_VX -> {
+                    push(nnn);
+                    reg(x);
+                    op(0x60);
+                    istore(PC_LOCAL);
+                }
+                case Chip8Decoder.OP_DRW_CLIP -> {
+                    helper("clipSprite", "(III)V", x, y, d & 0xF);
+                    loaded[0xF] = false;
+                }
+                case Chip8Decoder.OP_STORE_KEEP_I -> {
+                    helper("writeRegisters", "(I)V", x);
+                    push(next);
+                    istore(PC_LOCAL);
+                }
+                case Chip8Decoder.OP_LOAD_KEEP_I -> {
+                    helper("readRegisters", "(I)V", x);
+                    for (int r = 0; r <= x; r++) {
+                        loaded[r] = false;
+                    }
+                }
+                case Chip8Decoder.OP_SCD -> helper("scrollDown", "(I)V", d & 0xF);
+                case Chip8Decoder.OP_SCU -> helper("scrollUp", "(I)V", d & 0xF);
+                case Chip8Decoder.OP_SCR -> helper("scrollRight", "()V");
+                case Chip8Decoder.OP_SCL -> helper("scrollLeft", "()V");
+                case Chip8Decoder.OP_EXIT -> {
+                    push(next - 2);
+                    istore(PC_LOCAL);
+                }
+                case Chip8Decoder.OP_LOW -> helper("setResolution", "(Z)V", 0);
+                case Chip8Decoder.OP_HIGH -> helper("setResolution", "(Z)V", 1);
+                case Chip8Decoder.OP_SAVE_RANGE -> {
+                    helper("saveRange", "(II)V", x, y);
+                    push(next);
+                    istore(PC_LOCAL);
+                }
+                case Chip8Decoder.OP_LOAD_RANGE -> {
+                    helper("loadRange", "(II)V", x, y);
+                    for (int r = Math.min(x, y); r <= Math.max(x, y); r++) {
+                        loaded[r] = false;
+                    }
+                }
+                case Chip8Decoder.OP_PLANE -> helper("selectPlanes", "(I)V", x);
+                case Chip8Decoder.OP_AUDIO -> helper("loadAudioPattern", "()V");
+                case Chip8Decoder.OP_LD_HF -> {
+                    reg(x);
+                    push(0xF);
+                    op(0x7E);
+                    push(10);
+                    op(0x68);
+                    push(Chip8Core.BIG_FONTSET_START);
+                    op(0x60);
+                    setReg(I_REG);
+                }
+                case Chip8Decoder.OP_PITCH -> helper("setPitch", "(I)V", x);
+                case Chip8Decoder.OP_STORE_FLAGS -> helper("storeFlags", "(I)V", x);
+                case Chip8Decoder.OP_LOAD_FLAGS -> {
+                    helper("loadFlags", "(I)V", x);
+                    for (int r = 0; r <= x; r++) {
+                        loaded[r] = false;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        /**
+         * Computes {@code next + (1 << shift)} when the condition holds (SE) or fails (SNE) without branching:
+         * {@code compare} leaves {@code a ^ b} (always 0..255) on the stack, and {@code ((a ^ b) - 1) >>> 31} is 1
+         * exactly when they are equal. A shift of 2 skips over a four-byte F000 NNNN.
+         */
+        private void skip(int next, Runnable compare, boolean skipIfEqual, int shift) {
+            compare.run();
+            push(1);
+            op(0x64);
+            push(31);
+            op(0x7C);
+            if (!skipIfEqual) {
+                push(1);
+                op(0x82);
+            }
+            push(shift);
+            op(0x78);
+            push(next);
+            op(0x60);
+            istore(PC_LOCAL);
+        }
+
+        private void keySkip(int next, int x, boolean skipIfPressed, int shift) {
+            op(0x2B);
+            fieldInsn(0xB4, "keys", "[Z");
+            reg(x);
+            push(0xF);
+            op(0x7E);
+            op(0x33);
+            if (!skipIfPressed) {
+                push(1);
+                op(0x82);
+            }
+            push(shift);
+            op(0x78);
+            push(next);
+            op(0x60);
+            istore(PC_LOCAL);
+        }
+
+        private void binary(int x, int y, int opcode) {
+            reg(x);
+            reg(y);
+            op(opcode);
+            setReg(x);
+        }
+
+        /**
+         * VF = (a >= b) computed as {@code (b - a - 1) >>> 31}, then Vx = (a - b) &amp; 0xFF with the registers
+         * re-read, matching the interpreter when x or y is F.
+         */
+        private void subtract(int x, int y, int a, int b) {
+            reg(b);
+            reg(a);
+            op(0x64);
+            push(1);
+            op(0x64);
+            push(31);
+            op(0x7C);
+            setReg(0xF);
+            reg(a);
+            reg(b);
+            op(0x64);
+            maskByte();
+            setReg(x);
+        }
+
+        private void helper(String name, String desc, int... args) {
+            flushAll();
+            op(0x2B);
+            for (int arg : args) {
+                push(arg);
+            }
+            invoke(name, desc);
+        }
+
+        private void reg(int r) {
+            if (!loaded[r]) {
+                if (r == I_REG) {
+                    op(0x2B);
+                    fieldInsn(0xB4, "I", "I");
+                } else {
+                    aload(V_LOCAL);
+                    push(r);
+                    op(0x33);
+                    maskByte();
+                }
+                istore(local(r));
+                loaded[r] = true;
+                dirty[r] = false;
+            }
+            iload(local(r));
+        }
+
+        private void setReg(int r) {
+            istore(local(r));
+            loaded[r] = true;
+            dirty[r] = true;
+        }
+
+        private void flushAll() {
+            for (int r = 0; r < 16; r++) {
+                if (dirty[r]) {
+                    aload(V_LOCAL);
+                    push(r);
+                    iload(local(r));
+                    op(0x91);
+                    op(0x54);
+                    dirty[r] = false;
+                }
+            }
+            if (dirty[I_REG]) {
+                op(0x2B);
+                iload(I_LOCAL);
+                fieldInsn(0xB5, "I", "I");
+                dirty[I_REG] = false;
+            }
+        }
+
+        private static int local(int r) {
+            return r == I_REG ? I_LOCAL : REG_BASE + r;
+        }
+
+        private void maskByte() {
+            push(0xFF);
+            op(0x7E);
+        }
+
+        private void push(int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(0x10);
+                op(value);
+            } else {
+                op(0x11);
+                u2(code, value);
+            }
+        }
+
+        private void iload(int local) {
+            op(0x15);
+            op(local);
+        }
+
+        private void istore(int local) {
+            op(0x36);
+            op(local);
+        }
+
+        private void aload(int local) {
+            op(0x19);
+            op(local);
+        }
+
+        private void astore(int local) {
+            op(0x3A);
+            op(local);
+        }
+
+        private void fieldInsn(int opcode, String name, String desc) {
+            op(opcode);
+            u2(code, memberRef(9, CORE, name, desc));
+        }
+
+        private void invoke(String name, String desc) {
+            op(0xB6);
+            u2(code, methodRef(CORE, name, desc));
+        }
+
+        private void op(int b) {
+            code.write(b);
+        }
+
+        private static void method(ByteArrayOutputStream out, int access, int name, int desc, int codeAttr,
+                                   int maxStack, int maxLocals, byte[] body, byte[] attributes) {
+            u2(out, access);
+            u2(out, name);
+            u2(out, desc);
+            u2(out, 1);
+            u2(out, codeAttr);
+            u4(out, 12 + body.length + attributes.length);
+            u2(out, maxStack);
+            u2(out, maxLocals);
+            u4(out, body.length);
+            out.writeBytes(body);
+            u2(out, 0);
+            u2(out, attributes.length > 0 ? 1 : 0);
+            out.writeBytes(attributes);
+        }
+
+        private int utf8(String value) {
+            return constant("U" + value, () -> {
+                pool.write(1);
+                byte[] bytes = value.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                u2(pool, bytes.length);
+                pool.writeBytes(bytes);
+            });
+        }
+
+        private int classRef(String name) {
+            int nameIndex = utf8(name);
+            return constant("C" + name, () -> {
+                pool.write(7);
+                u2(pool, nameIndex);
+            });
+        }
+
+        private int methodRef(String owner, String name, String desc) {
+            return memberRef(10, owner, name, desc);
+        }
+
+        private int memberRef(int tag, String owner, String name, String desc) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descIndex = utf8(desc);
+            int nat = constant("N" + name + ":" + desc, () -> {
+                pool.write(12);
+                u2(pool, nameIndex);
+                u2(pool, descIndex);
+            });
+            return constant("M" + tag + owner + "." + name + ":" + desc, () -> {
+                pool.write(tag);
+                u2(pool, ownerIndex);
+                u2(pool, nat);
+            });
+        }
+
+        private int constant(String key, Runnable writer) {
+            Integer index = poolIndex.get(key);
+            if (index == null) {
+                writer.run();
+                index = poolCount++;
+                poolIndex.put(key, index);
+            }
+            return index;
+        }
+
+        private static void u2(ByteArrayOutputStream out, int value) {
+            out.write(value >> 8);
+            out.write(value);
+        }
+
+        private static void u4(ByteArrayOutputStream out, int value) {
+            u2(out, value >>> 16);
+            u2(out, value);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Runtime counters for one {@link Chip8Core}. Nothing is collected until {@link #setEnabled(boolean)} attaches the
+ * metrics to the core; while detached, the hot loop only pays for a null check.
+ *
+ * Each counter has a single writer. Instruction, timer, frame and opcode counts are written by the thread running
+ * the core while it holds the core's monitor, so they are plain fields that readers sample under the same monitor.
+ * Paint counts come from the event dispatch thread without the monitor and go into {@link LongAdder}s. The opcode
+ * histogram is indexed by {@link Chip8Decoder} operation id, i.e. by {@code opcode & 0xF000} plus the sub-operation.
+ *
+ * {@link #register()} publishes the metrics as the {@code chip8:type=Metrics} MXBean and as a periodic JFR event.
+ * The clock and the panel also emit a JFR event per frame and per paint whether or not the metrics are enabled.
+ */
+public class Chip8Metrics implements Chip8MetricsMXBean {
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    private final Chip8Core core;
+    final long[] opcodes = new long[Chip8Decoder.OP_COUNT];
+    long instructions;
+    long timerTicks;
+    private long framesPresented;
+    private long framesSkipped;
+    private long cpuNanos;
+    private long windowStart;
+    private long windowInstructions;
+    private volatile double instructionsPerSecond;
+    private final LongAdder paints = new LongAdder();
+    private final LongAdder paintNanos = new LongAdder();
+
+    public Chip8Metrics(Chip8Core core) {
+        this.core = core;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        synchronized (core) {
+            return core.getMetrics() == this;
+        }
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        synchronized (core) {
+            if (enabled != isEnabled()) {
+                core.flushCounts();
+                core.setMetrics(enabled ? this : null);
+                windowStart = 0;
+            }
+        }
+    }
+
+    /**
+     * Registers the MXBean and the periodic JFR event. Failures are reported and otherwise ignored.
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("chip8:type=Metrics"));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        FlightRecorder.addPeriodicEvent(SampleEvent.class, () -> {
+            SampleEvent event = new SampleEvent();
+            synchronized (core) {
+                event.instructions = instructions;
+                event.instructionsPerSecond = instructionsPerSecond;
+                event.timerTicks = timerTicks;
+                event.framesPresented = framesPresented;
+                event.framesSkipped = framesSkipped;
+            }
+            event.paints = paints.sum();
+            event.commit();
+        });
+    }
+
+    /**
+     * Called by {@link Chip8Clock} after each frame while holding the core's monitor.
+     *
+     * @param nanos time spent executing instructions in the frame
+     */
+    void frameCompleted(long nanos, boolean presented) {
+        cpuNanos += nanos;
+        if (presented) {
+            framesPresented++;
+        } else {
+            framesSkipped++;
+        }
+        long now = System.nanoTime();
+        if (windowStart == 0) {
+            windowStart = now;
+            windowInstructions = instructions;
+        } else if (now - windowStart >= RATE_WINDOW_NANOS) {
+            instructionsPerSecond = (instructions - windowInstructions) * 1e9 / (now - windowStart);
+            windowStart = now;
+            windowInstructions = instructions;
+        }
+    }
+
+    /**
+     * Called after the panel has painted a frame. Safe from any thread.
+     */
+    public void paintCompleted(long nanos) {
+        paints.increment();
+        paintNanos.add(nanos);
+    }
+
+    @Override
+    public long getInstructions() {
+        synchronized (core) {
+            return instructions;
+        }
+    }
+
+    @Override
+    public double getInstructionsPerSecond() {
+        return instructionsPerSecond;
+    }
+
+    @Override
+    public long getTimerTicks() {
+        synchronized (core) {
+            return timerTicks;
+        }
+    }
+
+    @Override
+    public long getFramesPresented() {
+        synchronized (core) {
+            return framesPresented;
+        }
+    }
+
+    @Override
+    public long getFramesSkipped() {
+        synchronized (core) {
+            return framesSkipped;
+        }
+    }
+
+    @Override
+    public long getFramesPainted() {
+        return paints.sum();
+    }
+
+    @Override
+    public double getCpuMillisPerFrame() {
+        synchronized (core) {
+            long frames = framesPresented + framesSkipped;
+            return frames == 0 ? 0 : cpuNanos / 1e6 / frames;
+        }
+    }
+
+    @Override
+    public double getPaintMillisPerFrame() {
+        long count = paints.sum();
+        return count == 0 ? 0 : paintNanos.sum() / 1e6 / count;
+    }
+
+    @Override
+    public Map<String, Long> getOpcodeHistogram() {
+        long[] counts = getOpcodeCounts();
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int op = Chip8Decoder.OP_INVALID; op < counts.length; op++) {
+            histogram.put(Chip8Decoder.pattern(op), counts[op]);
+        }
+        return histogram;
+    }
+
+    /**
+     * Executions per {@link Chip8Decoder} operation id, including instructions run inside compiled blocks.
+     */
+    public long[] getOpcodeCounts() {
+        synchronized (core) {
+            if (core.getMetrics() == this) {
+                core.flushCounts();
+            }
+            return opcodes.clone();
+        }
+    }
+
+    @Override
+    public void reset() {
+        synchronized (core) {
+            if (core.getMetrics() == this) {
+                core.flushCounts();
+            }
+            Arrays.fill(opcodes, 0);
+            instructions = timerTicks = framesPresented = framesSkipped = cpuNanos = 0;
+            windowStart = 0;
+            instructionsPerSecond = 0;
+        }
+        paints.reset();
+        paintNanos.reset();
+    }
+
+    @Name("chip8.Frame")
+    @Label("CHIP-8 Frame")
+    @Category("CHIP-8")
+    @Description("One emulated 60 Hz frame on the CPU thread")
+    @StackTrace(false)
+    static final class FrameEvent extends Event {
+        @Label("Instructions")
+        long instructions;
+
+        @Label("Presented")
+        boolean presented;
+    }
+
+    @Name("chip8.Paint")
+    @Label("CHIP-8 Paint")
+    @Category("CHIP-8")
+    @Description("Drawing the framebuffer into the emulator window")
+    @StackTrace(false)
+    static final class PaintEvent extends Event {
+    }
+
+    @Name("chip8.Metrics")
+    @Label("CHIP-8 Metrics")
+    @Category("CHIP-8")
+    @Description("Cumulative emulator counters")
+    @StackTrace(false)
+    @Period("1 s")
+    static final class SampleEvent extends Event {
+        @Label("Instructions")
+        long instructions;
+
+        @Label("Instructions per Second")
+        double instructionsPerSecond;
+
+        @Label("Timer Ticks")
+        long timerTicks;
+
+        @Label("Frames Presented")
+        long framesPresented;
+
+        @Label("Frames Skipped")
+        long framesSkipped;
+
+        @Label("Paints")
+        long paints;
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.Map;
+
+/**
+ * Management view of {@link Chip8Metrics}, registered as {@code chip8:type=Metrics}.
+ */
+public interface Chip8MetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getInstructions();
+
+    /**
+     * Instructions executed per second of wall time, measured over the last second the clock was running.
+     */
+    double getInstructionsPerSecond();
+
+    long getTimerTicks();
+
+    long getFramesPresented();
+
+    long getFramesSkipped();
+
+    long getFramesPainted();
+
+    double getCpuMillisPerFrame();
+
+    double getPaintMillisPerFrame();
+
+    /**
+     * Execution counts keyed by opcode pattern, e.g. {@code 8XY4}.
+     */
+    Map<String, Long> getOpcodeHistogram();
+
+    void reset();
+}
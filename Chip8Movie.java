@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A recording of everything that makes a run non-deterministic: the CXKK generator seed, the quirks profile, every
+ * key press and release, and every 60 Hz timer tick, each stamped with the instruction count at which it happened.
+ * Replaying a movie against the same ROM reproduces the run instruction for instruction, at any speed.
+ *
+ * The file is big-endian:
+ * <pre>
+ * u4 magic 'C8MV', u2 version, u8 seed, u4 ROM CRC-32, u4 ROM length, u1 {@link Chip8Quirks#flags()},
+ * then events until the end event:
+ * varint instructions since the previous event, u1 event (0x0K key K down, 0x1K key K up, 0x20 timer tick, 0xFF end)
+ * </pre>
+ */
+public class Chip8Movie {
+    public static final int MAGIC = 0x43384D56;
+    public static final int VERSION = 1;
+    private static final int KEY_UP = 0x10;
+    private static final int TICK = 0x20;
+    private static final int END = 0xFF;
+
+    private final long seed;
+    private final int romCrc;
+    private final int romLength;
+    private final Chip8Quirks quirks;
+    private final byte[] events;
+
+    private Chip8Movie(long seed, int romCrc, int romLength, Chip8Quirks quirks, byte[] events) {
+        this.seed = seed;
+        this.romCrc = romCrc;
+        this.romLength = romLength;
+        this.quirks = quirks;
+        this.events = events;
+    }
+
+    /**
+     * Appends events to an in-memory buffer as the core reports them. Called on the thread running the core.
+     */
+    public static final class Recorder {
+        private final long seed;
+        private final byte[] rom;
+        private final Chip8Quirks quirks;
+        private byte[] buffer = new byte[4096];
+        private int size;
+        private long lastCycle;
+
+        private Recorder(long seed, byte[] rom, Chip8Quirks quirks) {
+            this.seed = seed;
+            this.rom = rom;
+            this.quirks = quirks;
+        }
+
+        void key(int k, boolean pressed, long cycle) {
+            event(cycle, k | (pressed ? 0 : KEY_UP));
+        }
+
+        void tick(long cycle) {
+            event(cycle, TICK);
+        }
+
+        private void event(long cycle, int event) {
+            if (size + 11 > buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            long delta = cycle - lastCycle;
+            lastCycle = cycle;
+            while ((delta & ~0x7FL) != 0) {
+                buffer[size++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            buffer[size++] = (byte) delta;
+            buffer[size++] = (byte) event;
+        }
+    }
+
+    /**
+     * Restarts {@code core} from power-on with a fresh seed, loads {@code rom} and starts recording. The core keeps
+     * its quirks profile, which is saved with the movie. Must be called while holding the core's monitor.
+     */
+    public static Recorder record(Chip8Core core, byte[] rom, long seed) {
+        core.reset();
+        core.setSeed(seed);
+        core.loadROM(rom);
+        Recorder recorder = new Recorder(core.rngState, rom.clone(), core.getQuirks());
+        core.setRecorder(recorder);
+        return recorder;
+    }
+
+    /**
+     * Detaches the recorder from {@code core} and returns the finished movie, which ends at the current instruction.
+     * Must be called while holding the core's monitor.
+     */
+    public static Chip8Movie stop(Chip8Core core, Recorder recorder) {
+        if (core.getRecorder() == recorder) {
+            core.setRecorder(null);
+        }
+        recorder.event(core.cycles, END);
+        return new Chip8Movie(recorder.seed, crc(recorder.rom), recorder.rom.length, recorder.quirks,
+                Arrays.copyOf(recorder.buffer, recorder.size));
+    }
+
+    /**
+     * Runs {@code core} from power-on through the whole movie as fast as possible, switching it to the movie's quirks
+     * profile first.
+     *
+     * @return the number of instructions executed
+     * @throws IllegalArgumentException if {@code rom} is not the ROM the movie was recorded with
+     * @throws IllegalStateException if the run diverges from the recording
+     */
+    public long replay(Chip8Core core, byte[] rom) {
+        if (rom.length != romLength || crc(rom) != romCrc) {
+            throw new IllegalArgumentException("Movie was recorded with a different ROM");
+        }
+        core.setQuirks(quirks);
+        core.reset();
+        core.loadROM(rom);
+        core.rngState = seed;
+
+        long cycle = 0;
+        int position = 0;
+        while (true) {
+            long delta = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = events[position++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            int event = events[position++] & 0xFF;
+
+            cycle += delta;
+            while (core.cycles < cycle) {
+                if (core.runCycles((int) Math.min(Integer.MAX_VALUE, cycle - core.cycles)) == 0) {
+                    throw new IllegalStateException("Replay diverged at instruction " + core.cycles);
+                }
+            }
+            if (event == END) {
+                return core.cycles;
+            } else if (event == TICK) {
+                core.tickTimers();
+                core.present();
+            } else if ((event & KEY_UP) != 0) {
+                core.keyUp(event & 0xF);
+            } else {
+                core.keyDown(event & 0xF);
+            }
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the profile the movie was recorded with.
+     */
+    public Chip8Quirks getQuirks() {
+        return quirks;
+    }
+
+    public void save(Path path) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(4 + 2 + 8 + 4 + 4 + 1 + events.length);
+        out.putInt(MAGIC);
+        out.putShort((short) VERSION);
+        out.putLong(seed);
+        out.putInt(romCrc);
+        out.putInt(romLength);
+        out.put((byte) quirks.flags());
+        out.put(events);
+        Files.write(path, out.array());
+    }
+
+    public static Chip8Movie load(Path path) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a CHIP-8 movie");
+            }
+            int version = in.getShort() & 0xFFFF;
+            if (version != VERSION) {
+                throw new IOException("Unsupported movie version " + version);
+            }
+            long seed = in.getLong();
+            int romCrc = in.getInt();
+            int romLength = in.getInt();
+            Chip8Quirks quirks = Chip8Quirks.fromFlags(in.get() & 0xFF);
+            byte[] events = new byte[in.remaining()];
+            in.get(events);
+            if (events.length < 2 || (events[events.length - 1] & 0xFF) != END) {
+                throw new IOException("Truncated movie");
+            }
+            return new Chip8Movie(seed, romCrc, romLength, quirks, events);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated movie", e);
+        }
+    }
+
+    private static int crc(byte[] rom) {
+        CRC32 crc = new CRC32();
+        crc.update(rom);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,286 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Guest-level profiler. Counts how often each address is executed, how often a sprite is drawn from each address
+ * and, for every 2NNN, which call site entered which subroutine and how many instructions ran before the matching
+ * 00EE. All counters are flat arrays indexed by address and allocated up front, so collecting never allocates; only
+ * the reports do.
+ *
+ * Like {@link Chip8Metrics}, the profiler is attached to the core with {@link #setEnabled(boolean)} and its
+ * counters are written by the thread running the core while it holds the core's monitor. Under the recompiler,
+ * per-address counts are exact but subroutine instruction totals may be off by the length of the blocks that
+ * contain the call and the return.
+ */
+public class Chip8Profiler {
+    private static final int STACK_DEPTH = 16;
+
+    public record Hotspot(int address, long executions) {
+    }
+
+    public record Subroutine(int address, long calls, long instructions) {
+    }
+
+    public record CallEdge(int site, int target, long calls) {
+    }
+
+    private final Chip8Core core;
+    long[] executions;
+    /**
+     * DXYN draws by the value of I, i.e. by sprite.
+     */
+    long[] sprites;
+    private long[] siteCalls;
+    private int[] siteTarget;
+    private long[] subroutineCalls;
+    private long[] subroutineInstructions;
+    private final int[] frameTarget = new int[STACK_DEPTH];
+    private final long[] frameStart = new long[STACK_DEPTH];
+
+    public Chip8Profiler(Chip8Core core) {
+        this.core = core;
+        int size = core.memory.length;
+        executions = new long[size];
+        sprites = new long[size];
+        siteCalls = new long[size];
+        siteTarget = new int[size];
+        subroutineCalls = new long[size];
+        subroutineInstructions = new long[size];
+        Arrays.fill(frameTarget, -1);
+    }
+
+    public boolean isEnabled() {
+        synchronized (core) {
+            return core.getProfiler() == this;
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        synchronized (core) {
+            if (enabled != isEnabled()) {
+                core.flushCounts();
+                grow(core.memory.length);
+                core.setProfiler(enabled ? this : null);
+                Arrays.fill(frameTarget, -1);
+            }
+        }
+    }
+
+    public void reset() {
+        synchronized (core) {
+            core.flushCounts();
+            Arrays.fill(executions, 0);
+            Arrays.fill(sprites, 0);
+            Arrays.fill(siteCalls, 0);
+            Arrays.fill(siteTarget, 0);
+            Arrays.fill(subroutineCalls, 0);
+            Arrays.fill(subroutineInstructions, 0);
+            Arrays.fill(frameTarget, -1);
+        }
+    }
+
+    /**
+     * Gives every address of a core whose memory grew to {@code size} bytes a counter, keeping the counts so far.
+     */
+    void grow(int size) {
+        if (size <= executions.length) {
+            return;
+        }
+        executions = Arrays.copyOf(executions, size);
+        sprites = Arrays.copyOf(sprites, size);
+        siteCalls = Arrays.copyOf(siteCalls, size);
+        siteTarget = Arrays.copyOf(siteTarget, size);
+        subroutineCalls = Arrays.copyOf(subroutineCalls, size);
+        subroutineInstructions = Arrays.copyOf(subroutineInstructions, size);
+    }
+
+    /**
+     * Called by the core after a 2NNN at {@code site} has pushed stack entry {@code depth}.
+     */
+    void call(int site, int target, int depth, long cycles) {
+        if (site >= 0 && site < siteCalls.length) {
+            siteCalls[site]++;
+            siteTarget[site] = target;
+        }
+        subroutineCalls[target]++;
+        frameTarget[depth] = target;
+        frameStart[depth] = cycles;
+    }
+
+    /**
+     * Called by the core after drawing the sprite at {@code address}.
+     */
+    void draw(int address) {
+        sprites[address]++;
+    }
+
+    /**
+     * Called by the core after a 00EE has popped stack entry {@code depth}.
+     */
+    void ret(int depth, long cycles) {
+        int target = frameTarget[depth];
+        if (target >= 0) {
+            subroutineInstructions[target] += cycles - frameStart[depth];
+            frameTarget[depth] = -1;
+        }
+    }
+
+    /**
+     * The {@code n} most executed addresses, most executed first.
+     */
+    public List<Hotspot> hotAddresses(int n) {
+        synchronized (core) {
+            core.flushCounts();
+            List<Hotspot> hotspots = new ArrayList<>();
+            long[] executions = this.executions;
+            for (int address : top(executions.length, address -> executions[address], n)) {
+                hotspots.add(new Hotspot(address, executions[address]));
+            }
+            return hotspots;
+        }
+    }
+
+    /**
+     * The {@code n} subroutines with the most instructions executed between entry and return, including nested
+     * calls.
+     */
+    public List<Subroutine> hotSubroutines(int n) {
+        synchronized (core) {
+            List<Subroutine> subroutines = new ArrayList<>();
+            long[] instructions = subroutineInstructions;
+            long[] calls = subroutineCalls;
+            // A subroutine that was called but has not returned yet still ranks, below every one that has.
+            IntToLongFunction weight = address -> instructions[address] != 0 ? instructions[address]
+                    : calls[address] != 0 ? 1 : 0;
+            for (int address : top(instructions.length, weight, n)) {
+                subroutines.add(new Subroutine(address, subroutineCalls[address], subroutineInstructions[address]));
+            }
+            return subroutines;
+        }
+    }
+
+    /**
+     * Every call site seen so far with the subroutine it called last.
+     */
+    public List<CallEdge> callGraph() {
+        synchronized (core) {
+            List<CallEdge> edges = new ArrayList<>();
+            for (int site = 0; site < siteCalls.length; site++) {
+                if (siteCalls[site] != 0) {
+                    edges.add(new CallEdge(site, siteTarget[site], siteCalls[site]));
+                }
+            }
+            return edges;
+        }
+    }
+
+    /**
+     * The addresses below {@code length} with the {@code n} largest non-zero weights, largest first and ties in
+     * address order. The candidates are kept in a min-heap of {@code n} entries, so the debugger can rank 64K
+     * counters every frame on the thread running the core without boxing or copying them.
+     */
+    private static int[] top(int length, IntToLongFunction weight, int n) {
+        int[] heap = new int[Math.min(n, length)];
+        long[] keys = new long[heap.length];
+        int size = 0;
+        for (int address = 0; address < length; address++) {
+            long key = weight.applyAsLong(address);
+            if (key == 0) {
+                continue;
+            }
+            if (size < heap.length) {
+                int child = size++;
+                while (child > 0 && before(address, key, heap[(child - 1) / 2], keys[(child - 1) / 2])) {
+                    int parent = (child - 1) / 2;
+                    heap[child] = heap[parent];
+                    keys[child] = keys[parent];
+                    child = parent;
+                }
+                heap[child] = address;
+                keys[child] = key;
+            } else if (size > 0 && key > keys[0]) {
+                siftDown(heap, keys, size, address, key);
+            }
+        }
+        // Popping the minimum fills the result from the back. Equal keys pop the later address first, since an
+        // address never displaces an equal key seen before it.
+        int[] result = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            result[i] = heap[0];
+            size--;
+            siftDown(heap, keys, size, heap[size], keys[size]);
+        }
+        return result;
+    }
+
+    /**
+     * Puts {@code address} with {@code key} at the root of the first {@code size} heap entries and moves it down
+     * to its place. Among equal keys the later address sits above, so it is the one dropped or popped first.
+     */
+    private static void siftDown(int[] heap, long[] keys, int size, int address, long key) {
+        int parent = 0;
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(heap[child + 1], keys[child + 1], heap[child], keys[child])) {
+                child++;
+            }
+            if (!before(heap[child], keys[child], address, key)) {
+                break;
+            }
+            heap[parent] = heap[child];
+            keys[parent] = keys[child];
+            parent = child;
+        }
+        heap[parent] = address;
+        keys[parent] = key;
+    }
+
+    /**
+     * Heap order: lower keys first, and among equal keys the higher address.
+     */
+    private static boolean before(int address, long key, int otherAddress, long otherKey) {
+        return key != otherKey ? key < otherKey : address > otherAddress;
+    }
+
+    /**
+     * Writes every executed address, the call graph and all subroutines as text.
+     */
+    public void writeTo(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        List<Hotspot> hotspots = hotAddresses(executions.length);
+        long total = 0;
+        for (Hotspot hotspot : hotspots) {
+            total += hotspot.executions();
+        }
+        out.printf("# %d instructions%n", total);
+        out.println("# address executions percent");
+        for (Hotspot hotspot : hotspots) {
+            out.printf("0x%03X %d %.2f%n", hotspot.address(), hotspot.executions(), hotspot.executions() * 100.0 / total);
+        }
+        out.println("# call site -> subroutine, calls");
+        for (CallEdge edge : callGraph()) {
+            out.printf("0x%03X -> 0x%03X %d%n", edge.site(), edge.target(), edge.calls());
+        }
+        out.println("# subroutine calls instructions");
+        for (Subroutine subroutine : hotSubroutines(executions.length)) {
+            out.printf("0x%03X %d %d%n", subroutine.address(), subroutine.calls(), subroutine.instructions());
+        }
+        out.flush();
+    }
+
+    public void export(Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            writeTo(writer);
+        }
+    }
+}
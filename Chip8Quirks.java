@@ -0,0 +1,92 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How a machine resolves the opcodes whose behavior differs between CHIP-8 interpreters. Quirks are applied by
+ * {@link Chip8Decoder} when an instruction is decoded, which picks a dedicated operation id for each variant, so
+ * neither the interpreter nor compiled blocks test a quirk flag while running.
+ *
+ * @param name profile name, as accepted by {@link #named(String)}
+ * @param logicResetsVf 8XY1, 8XY2 and 8XY3 clear VF (COSMAC VIP)
+ * @param shiftUsesVy 8XY6 and 8XYE shift VY into VX instead of shifting VX in place
+ * @param memoryIncrementsI FX55 and FX65 leave I pointing past the last register transferred
+ * @param jumpUsesVx BNNN is BXNN and jumps to XNN + VX instead of NNN + V0
+ * @param clipSprites DXYN clips sprites at the screen edges instead of wrapping them around
+ * @param longLoad F000 NNNN is XO-CHIP's four-byte load of I, which skips step over whole; otherwise F000 is an
+ *        unknown two-byte opcode as on the classic interpreters
+ */
+public record Chip8Quirks(String name, boolean logicResetsVf, boolean shiftUsesVy, boolean memoryIncrementsI,
+        boolean jumpUsesVx, boolean clipSprites, boolean longLoad) {
+
+    /**
+     * What this emulator has always done, used for ROMs that are not in the database.
+     */
+    public static final Chip8Quirks DEFAULT = new Chip8Quirks("default", false, false, true, false, false, false);
+    public static final Chip8Quirks CHIP8 = new Chip8Quirks("chip8", true, true, true, false, true, false);
+    public static final Chip8Quirks SCHIP = new Chip8Quirks("schip", false, false, false, true, true, false);
+    public static final Chip8Quirks XOCHIP = new Chip8Quirks("xochip", false, true, true, false, false, true);
+    public static final List<Chip8Quirks> PROFILES = List.of(DEFAULT, CHIP8, SCHIP, XOCHIP);
+
+    /**
+     * SHA-256 of the ROM contents to profile.
+     */
+    private static final Map<String, Chip8Quirks> DATABASE = new ConcurrentHashMap<>(Map.of(
+            "8bf3b46d8a64c2074e7538200f684a2eaced258404d3c7d3bd7a917c3d0143e5", CHIP8,   // IBM logo
+            "e36c8ca08d35511b82d45649ded2ed794c24659d8e7fa4e59118aaf99610003c", CHIP8,   // Maze
+            "1db31d734b9352f96aa5e11d9a3085b043a04f21cc793ac9bfde62f857f983e9", CHIP8,   // Pong
+            "e5582b76ad9d9b37a8b55e5456c7d9de1d04159e3eb05d4449f117abb8eba080", CHIP8,   // Puzzle
+            "c0a5c1b3280cef3256f0e0445f288a66eb417029087ea1db37b015d517582f3c", DEFAULT  // Wall: draws across the right edge
+    ));
+
+    public static Chip8Quirks named(String name) {
+        for (Chip8Quirks profile : PROFILES) {
+            if (profile.name.equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown quirks profile: " + name);
+    }
+
+    /**
+     * Packs the flags into bits 0 ({@code logicResetsVf}) to 5 ({@code longLoad}), in declaration order.
+     */
+    public int flags() {
+        return (logicResetsVf ? 1 : 0) | (shiftUsesVy ? 2 : 0) | (memoryIncrementsI ? 4 : 0) | (jumpUsesVx ? 8 : 0)
+                | (clipSprites ? 16 : 0) | (longLoad ? 32 : 0);
+    }
+
+    /**
+     * Returns the profile with these {@link #flags()}, or a "custom" one if no profile matches.
+     */
+    public static Chip8Quirks fromFlags(int flags) {
+        for (Chip8Quirks profile : PROFILES) {
+            if (profile.flags() == flags) {
+                return profile;
+            }
+        }
+        return new Chip8Quirks("custom", (flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0, (flags & 8) != 0,
+                (flags & 16) != 0, (flags & 32) != 0);
+    }
+
+    /**
+     * Returns the profile recorded for a ROM, or {@link #DEFAULT}.
+     *
+     * @param sha256 lower-case hex SHA-256 of the ROM contents, as returned by {@link Chip8Rom#hash()}
+     */
+    public static Chip8Quirks forRom(String sha256) {
+        return DATABASE.getOrDefault(sha256, DEFAULT);
+    }
+
+    /**
+     * Adds or replaces a database entry. Only ROMs opened afterwards pick it up.
+     */
+    public static void register(String sha256, Chip8Quirks quirks) {
+        DATABASE.put(sha256, quirks);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
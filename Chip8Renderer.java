@@ -0,0 +1,71 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Keeps a 128x64 image of the CHIP-8 framebuffer. Only rows the core reports as dirty are copied into the image, and
+ * the whole image is drawn scaled with a single {@code drawImage} call. Low-resolution pixels are written as 2x2
+ * blocks, so both resolutions fill the same image. The colour of a pixel is looked up from the bits it has in the
+ * XO-CHIP planes.
+ */
+public class Chip8Renderer {
+    private static final int[] PALETTE = {
+        Color.DARK_GRAY.getRGB(), Color.WHITE.getRGB(), new Color(0xFF, 0xAA, 0x00).getRGB(), Color.GRAY.getRGB()
+    };
+
+    private final BufferedImage image = new BufferedImage(Chip8Core.HIRES_WIDTH, Chip8Core.HIRES_HEIGHT, BufferedImage.TYPE_INT_RGB);
+    private final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+    public Chip8Renderer() {
+        java.util.Arrays.fill(pixels, PALETTE[0]);
+    }
+
+    /**
+     * Copies the rows changed since the last call into the image. Must be called while holding the core's monitor.
+     *
+     * @return whether anything changed, i.e. whether a repaint is needed
+     */
+    public synchronized boolean update(Chip8Core core) {
+        long dirty = core.takeDirtyRows();
+        if (dirty == 0) {
+            return false;
+        }
+        long[] display = core.display;
+        boolean hires = core.isHighResolution();
+        if (!hires) {
+            dirty &= (1L << Chip8Core.HEIGHT) - 1;
+        }
+        for (long rows = dirty; rows != 0; rows &= rows - 1) {
+            int y = Long.numberOfTrailingZeros(rows);
+            int first = Chip8Core.row(0, y);
+            int second = Chip8Core.row(1, y);
+            if (hires) {
+                for (int word = 0; word < Chip8Core.ROW_WORDS; word++) {
+                    long plane0 = display[first + word];
+                    long plane1 = display[second + word];
+                    int offset = y * Chip8Core.HIRES_WIDTH + word * 64;
+                    for (int x = 0; x < 64; x++) {
+                        pixels[offset + x] = PALETTE[(int) ((plane0 << x) >>> 63) | (int) ((plane1 << x) >>> 63) << 1];
+                    }
+                }
+            } else {
+                long plane0 = display[first];
+                long plane1 = display[second];
+                int offset = y * 2 * Chip8Core.HIRES_WIDTH;
+                for (int x = 0; x < Chip8Core.WIDTH; x++) {
+                    int color = PALETTE[(int) ((plane0 << x) >>> 63) | (int) ((plane1 << x) >>> 63) << 1];
+                    int p = offset + x * 2;
+                    pixels[p] = color;
+                    pixels[p + 1] = color;
+                    pixels[p + Chip8Core.HIRES_WIDTH] = color;
+                    pixels[p + Chip8Core.HIRES_WIDTH + 1] = color;
+                }
+            }
+        }
+        return true;
+    }
+
+    public synchronized void paint(Graphics g, int width, int height) {
+        g.drawImage(image, 0, 0, width, height, null);
+    }
+}
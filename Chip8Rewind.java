@@ -0,0 +1,192 @@
+import java.util.Arrays;
+
+/**
+ * Bounded history of per-frame machine states for stepping backwards. Frames are grouped: the first frame of each
+ * group is a full {@link Chip8Snapshot} keyframe and the rest store only their registers plus the 64-byte memory
+ * pages and display words that differ from that keyframe. Any frame is restored from its keyframe and one delta.
+ *
+ * The changed words and pages of a group's deltas are packed back to back into arenas owned by the group, and a
+ * delta only holds its offsets into them. Recording a frame truncates the arenas to the end of the previous frame
+ * in the group, and a new keyframe empties them, so they never grow past what one group of frames actually
+ * changed. The arenas are kept once grown and reused when the ring wraps.
+ */
+public class Chip8Rewind {
+    public static final int KEYFRAME_INTERVAL = Chip8Clock.FRAME_RATE;
+
+    private final int capacity;
+    private final Group[] groups;
+    private final Delta[] deltas;
+    private int newest = -1;
+    private int count;
+
+    private static final class Group {
+        Chip8Snapshot keyframe;
+        long[] words = new long[64];
+        short[] pageIndex = new short[16];
+        byte[] pageData = new byte[16 * Chip8Snapshot.PAGE];
+    }
+
+    private static final class Delta {
+        final Chip8Snapshot registers = new Chip8Snapshot(0, 0);
+        final long[] wordMask;
+        int wordOffset;
+        int wordCount;
+        int pageOffset;
+        int pageCount;
+
+        Delta(int displayWords) {
+            wordMask = new long[(displayWords + 63) / 64];
+        }
+    }
+
+    public Chip8Rewind(int seconds) {
+        int groupCount = Math.max(2, seconds * Chip8Clock.FRAME_RATE / KEYFRAME_INTERVAL);
+        capacity = groupCount * KEYFRAME_INTERVAL;
+        groups = new Group[groupCount];
+        deltas = new Delta[capacity];
+    }
+
+    public synchronized void clear() {
+        newest = -1;
+        count = 0;
+    }
+
+    public synchronized int getFrameCount() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Records the state of {@code core} as the newest frame. Must be called while holding the core's monitor.
+     */
+    public synchronized void record(Chip8Core core) {
+        if (newest >= 0 && groups[newest / KEYFRAME_INTERVAL].keyframe.memory.length != core.memory.length) {
+            // Memory grew; later frames could not be encoded against the smaller keyframes.
+            clear();
+        }
+        int index = (newest + 1) % capacity;
+        int position = index % KEYFRAME_INTERVAL;
+        Group group = groups[index / KEYFRAME_INTERVAL];
+        if (group == null) {
+            group = groups[index / KEYFRAME_INTERVAL] = new Group();
+        }
+        if (position == 0) {
+            if (group.keyframe == null) {
+                group.keyframe = Chip8Snapshot.capture(core);
+            } else {
+                group.keyframe.captureFrom(core);
+            }
+        } else {
+            if (deltas[index] == null) {
+                deltas[index] = new Delta(core.display.length);
+            }
+            Delta previous = position > 1 ? deltas[index - 1] : null;
+            encode(deltas[index], group, previous, core);
+        }
+        newest = index;
+        int valid = capacity - KEYFRAME_INTERVAL + position + 1;
+        count = Math.min(count + 1, valid);
+    }
+
+    /**
+     * Drops the newest frame and restores the one before it.
+     *
+     * @return false if there is no earlier frame to go back to
+     */
+    public synchronized boolean stepBack(Chip8Core core) {
+        if (count < 2) {
+            return false;
+        }
+        newest = (newest - 1 + capacity) % capacity;
+        count--;
+        restore(newest, core);
+        return true;
+    }
+
+    /**
+     * Bytes currently held by keyframes, deltas and their arenas.
+     */
+    public synchronized long getMemoryUsage() {
+        long bytes = 0;
+        for (Group group : groups) {
+            if (group != null) {
+                bytes += group.words.length * 8L + group.pageIndex.length * 2L + group.pageData.length + 64;
+                if (group.keyframe != null) {
+                    bytes += group.keyframe.memory.length + group.keyframe.display.length * 8L + 128;
+                }
+            }
+        }
+        for (Delta delta : deltas) {
+            if (delta != null) {
+                bytes += delta.wordMask.length * 8L + 200;
+            }
+        }
+        return bytes;
+    }
+
+    private static void encode(Delta delta, Group group, Delta previous, Chip8Core core) {
+        delta.registers.captureRegisters(core);
+        Chip8Snapshot keyframe = group.keyframe;
+
+        long[] display = core.display;
+        int words = previous != null ? previous.wordOffset + previous.wordCount : 0;
+        delta.wordOffset = words;
+        for (int block = 0; block < delta.wordMask.length; block++) {
+            long mask = 0;
+            for (int i = block * 64, end = Math.min(display.length, i + 64); i < end; i++) {
+                if (display[i] != keyframe.display[i]) {
+                    if (words == group.words.length) {
+                        group.words = Arrays.copyOf(group.words, words * 2);
+                    }
+                    mask |= 1L << i;
+                    group.words[words++] = display[i];
+                }
+            }
+            delta.wordMask[block] = mask;
+        }
+        delta.wordCount = words - delta.wordOffset;
+
+        int pages = previous != null ? previous.pageOffset + previous.pageCount : 0;
+        delta.pageOffset = pages;
+        byte[] memory = core.memory;
+        for (int page = 0; page < memory.length; page += Chip8Snapshot.PAGE) {
+            if (Arrays.mismatch(memory, page, page + Chip8Snapshot.PAGE, keyframe.memory, page, page + Chip8Snapshot.PAGE) < 0) {
+                continue;
+            }
+            if (pages == group.pageIndex.length) {
+                group.pageIndex = Arrays.copyOf(group.pageIndex, pages * 2);
+                group.pageData = Arrays.copyOf(group.pageData, pages * 2 * Chip8Snapshot.PAGE);
+            }
+            group.pageIndex[pages] = (short) (page / Chip8Snapshot.PAGE);
+            System.arraycopy(memory, page, group.pageData, pages * Chip8Snapshot.PAGE, Chip8Snapshot.PAGE);
+            pages++;
+        }
+        delta.pageCount = pages - delta.pageOffset;
+    }
+
+    private void restore(int index, Chip8Core core) {
+        Group group = groups[index / KEYFRAME_INTERVAL];
+        group.keyframe.restoreTo(core);
+        if (index % KEYFRAME_INTERVAL == 0) {
+            return;
+        }
+        Delta delta = deltas[index];
+        for (int i = delta.pageOffset, end = i + delta.pageCount; i < end; i++) {
+            int page = (group.pageIndex[i] & 0xFFFF) * Chip8Snapshot.PAGE;
+            System.arraycopy(group.pageData, i * Chip8Snapshot.PAGE, core.memory, page, Chip8Snapshot.PAGE);
+            core.invalidate(page, Chip8Snapshot.PAGE);
+        }
+        int word = delta.wordOffset;
+        for (int block = 0; block < delta.wordMask.length; block++) {
+            for (long words = delta.wordMask[block]; words != 0; words &= words - 1) {
+                int i = block * 64 + Long.numberOfTrailingZeros(words);
+                core.display[i] = group.words[word++];
+            }
+        }
+        delta.registers.restoreRegisters(core);
+        core.markDisplayDirty();
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * A validated ROM image. Before a ROM is run, a single pass follows its control flow from 0x200 (fall-through,
+ * jumps, calls and both outcomes of every skip) to find the reachable instructions, decoding each one once and
+ * flagging the ones that are not valid CHIP-8. The decoded program and the analysis are cached by the SHA-256 of
+ * the ROM contents and the quirk flags they were decoded for, so loading the same ROM again, in the same or another
+ * core, does no decode work. The hash also selects the ROM's {@link Chip8Quirks} profile.
+ *
+ * Code only reachable through BNNN or through instructions written at run time is not discovered; the core
+ * decodes such code lazily as before.
+ */
+public final class Chip8Rom {
+    public static final int MAX_SIZE = Chip8Core.LONG_MEMORY_SIZE - Chip8Core.PROGRAM_START;
+    private static final int MAX_CACHED_PROGRAMS = 1024;
+    private static final Map<String, Program> PROGRAMS = new ConcurrentHashMap<>();
+
+    /**
+     * What the pre-pass found.
+     *
+     * @param reachableInstructions number of distinct addresses reachable as code
+     * @param invalidAddresses reachable addresses holding an opcode that is not valid CHIP-8
+     * @param indirectJumps whether the program contains a reachable BNNN, whose targets are not followed
+     */
+    public record Analysis(int reachableInstructions, int[] invalidAddresses, boolean indirectJumps) {
+    }
+
+    private record Program(int[] decoded, Analysis analysis) {
+    }
+
+    private final String name;
+    private final byte[] data;
+    private final String hash;
+    private final Chip8Quirks quirks;
+    private final Program program;
+
+    private Chip8Rom(String name, byte[] data) {
+        if (data.length > MAX_SIZE) {
+            throw new IllegalArgumentException("ROM file is too large");
+        }
+        this.name = name;
+        this.data = data;
+        this.hash = sha256(data);
+        this.quirks = Chip8Quirks.forRom(hash);
+        if (PROGRAMS.size() >= MAX_CACHED_PROGRAMS) {
+            PROGRAMS.clear();
+        }
+        this.program = PROGRAMS.computeIfAbsent(hash + ' ' + quirks.flags(), _ -> analyze(data, quirks));
+    }
+
+    public static Chip8Rom of(String name, byte[] data) {
+        return new Chip8Rom(name, data.clone());
+    }
+
+    /**
+     * Maps a ROM file into memory and validates it.
+     */
+    public static Chip8Rom open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > MAX_SIZE) {
+                throw new IOException("ROM file is too large");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            return new Chip8Rom(path.getFileName().toString(), data);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Opens every ROM named by {@code paths}. Directories and {@code .zip} archives contribute the {@code .ch8}
+     * files they contain, sorted by name.
+     */
+    public static List<Chip8Rom> openAll(List<String> paths) throws IOException {
+        List<Chip8Rom> roms = new ArrayList<>();
+        for (String arg : paths) {
+            Path path = Path.of(arg);
+            if (Files.isDirectory(path)) {
+                roms.addAll(openDirectory(path));
+            } else if (path.getFileName().toString().toLowerCase().endsWith(".zip")) {
+                try (FileSystem archive = FileSystems.newFileSystem(path)) {
+                    for (Path root : archive.getRootDirectories()) {
+                        roms.addAll(openDirectory(root));
+                    }
+                }
+            } else {
+                roms.add(open(path));
+            }
+        }
+        return roms;
+    }
+
+    private static List<Chip8Rom> openDirectory(Path directory) throws IOException {
+        List<Chip8Rom> roms = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.filter(p -> p.getFileName() != null
+                    && p.getFileName().toString().toLowerCase().endsWith(".ch8")).sorted().toList()) {
+                if (file.getFileSystem() == FileSystems.getDefault()) {
+                    roms.add(open(file));
+                } else {
+                    roms.add(read(file));
+                }
+            }
+        }
+        return roms;
+    }
+
+    private static Chip8Rom read(Path file) throws IOException {
+        try {
+            return new Chip8Rom(file.getFileName().toString(), Files.readAllBytes(file));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int size() {
+        return data.length;
+    }
+
+    public byte[] data() {
+        return data.clone();
+    }
+
+    /**
+     * Hex SHA-256 of the ROM contents.
+     */
+    public String hash() {
+        return hash;
+    }
+
+    /**
+     * The quirks profile the ROM database lists for this ROM, or {@link Chip8Quirks#DEFAULT}.
+     */
+    public Chip8Quirks quirks() {
+        return quirks;
+    }
+
+    public Analysis analysis() {
+        return program.analysis();
+    }
+
+    /**
+     * Copies the ROM into {@code memory} at 0x200 and its pre-decoded instructions into {@code decoded}, in which
+     * zero means "not decoded".
+     */
+    void copyTo(byte[] memory, int[] decoded) {
+        System.arraycopy(data, 0, memory, Chip8Core.PROGRAM_START, data.length);
+        System.arraycopy(program.decoded(), 0, decoded, Chip8Core.PROGRAM_START, data.length);
+    }
+
+    private static Program analyze(byte[] data, Chip8Quirks quirks) {
+        int[] decoded = new int[data.length];
+        int[] work = new int[data.length * 2 + 2];
+        int pending = 0;
+        int reachable = 0;
+        boolean indirect = false;
+        List<Integer> invalid = new ArrayList<>();
+
+        work[pending++] = 0;
+        while (pending > 0) {
+            int offset = work[--pending];
+            if (offset < 0 || offset + 1 >= data.length || decoded[offset] != 0) {
+                continue;
+            }
+            int next = offset + 3 < data.length ? ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF) : 0;
+            int d = Chip8Decoder.decode(((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF), next, quirks);
+            decoded[offset] = d;
+            reachable++;
+            int target = (d & 0xFFF) - Chip8Core.PROGRAM_START;
+            switch (d >>> 16) {
+                case Chip8Decoder.OP_JP -> work[pending++] = target;
+                case Chip8Decoder.OP_CALL -> {
+                    work[pending++] = offset + 2;
+                    work[pending++] = target;
+                }
+                case Chip8Decoder.OP_RET, Chip8Decoder.OP_EXIT -> {
+                }
+                case Chip8Decoder.OP_JP_V0, Chip8Decoder.OP_JP_VX -> indirect = true;
+                case Chip8Decoder.OP_SE_VX_KK, Chip8Decoder.OP_SNE_VX_KK, Chip8Decoder.OP_SE_VX_VY,
+                     Chip8Decoder.OP_SNE_VX_VY, Chip8Decoder.OP_SKP, Chip8Decoder.OP_SKNP -> {
+                    work[pending++] = offset + 4;
+                    work[pending++] = offset + 2;
+                }
+                case Chip8Decoder.OP_SE_VX_KK_LONG, Chip8Decoder.OP_SNE_VX_KK_LONG, Chip8Decoder.OP_SE_VX_VY_LONG,
+                     Chip8Decoder.OP_SNE_VX_VY_LONG, Chip8Decoder.OP_SKP_LONG, Chip8Decoder.OP_SKNP_LONG -> {
+                    work[pending++] = offset + 6;
+                    work[pending++] = offset + 2;
+                }
+                case Chip8Decoder.OP_LD_I_LONG -> work[pending++] = offset + 4;
+                case Chip8Decoder.OP_INVALID -> {
+                    invalid.add(offset + Chip8Core.PROGRAM_START);
+                    work[pending++] = offset + 2;
+                }
+                default -> work[pending++] = offset + 2;
+            }
+        }
+        int[] invalidAddresses = invalid.stream().mapToInt(Integer::intValue).sorted().toArray();
+        return new Program(decoded, new Analysis(reachable, invalidAddresses, indirect));
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Prints the analysis of every ROM given on the command line.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java Chip8Rom <rom, directory or zip>...");
+            System.exit(1);
+        }
+        boolean anyInvalid = false;
+        for (Chip8Rom rom : openAll(Arrays.asList(args))) {
+            Analysis analysis = rom.analysis();
+            System.out.printf("%s: %d bytes, %d reachable instructions%s, %s quirks, sha256 %s%n", rom.name(),
+                    rom.size(), analysis.reachableInstructions(), analysis.indirectJumps() ? " (has BNNN)" : "",
+                    rom.quirks(), rom.hash());
+            for (int address : analysis.invalidAddresses()) {
+                anyInvalid = true;
+                System.out.printf("  invalid opcode %02X%02X at 0x%03X%n", rom.data[address - Chip8Core.PROGRAM_START],
+                        rom.data[address - Chip8Core.PROGRAM_START + 1], address);
+            }
+        }
+        if (anyInvalid) {
+            System.exit(2);
+        }
+    }
+}
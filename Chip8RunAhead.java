@@ -0,0 +1,147 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Hides input latency by presenting a frame emulated ahead of the real machine. A second {@link Chip8Core} is kept
+ * {@code frames} frames in front of the real one, assuming the keys stay as they are, and its display is presented
+ * instead of the real one's; a key press therefore shows up that many frames sooner.
+ *
+ * While the real core runs a frame, the speculative core runs the frame after its own on a second thread, so on a
+ * machine with a spare core the speculation costs no frame time. Afterwards the speculation is checked against what
+ * the real core actually did. The machine is deterministic, so the speculated frame is exactly the real one as long
+ * as nothing but running changed the real core since the speculation started ({@link Chip8Core#changes} counts key
+ * events, restored snapshots, resets, ROM loads and quirks changes) and the real frame executed as many instructions
+ * as the speculative one (a single step or a breakpoint stop does not). That takes two comparisons per frame and,
+ * unlike comparing hashes of the state, cannot miss a difference. When the check fails, the speculation is rolled
+ * back: the real state is copied over through a {@link Chip8Snapshot}, which only drops decodes for the pages that
+ * differ, and the frames ahead are emulated again.
+ *
+ * Only the real core records movies, collects metrics and plays sound. All methods are called by {@link Chip8Clock}
+ * on its thread while holding the real core's monitor.
+ */
+public class Chip8RunAhead implements AutoCloseable {
+    public static final int MAX_FRAMES = 4;
+
+    private final Chip8Core ahead = new Chip8Core();
+    private final Chip8Snapshot transfer = new Chip8Snapshot(Chip8Core.MEMORY_SIZE, Chip8Core.PLANES * Chip8Core.PLANE_WORDS);
+    /**
+     * Instruction counts at the end of the speculated frames the real core has not reached yet, oldest at
+     * {@code head}.
+     */
+    private final long[] expected = new long[MAX_FRAMES];
+    private final ExecutorService worker;
+    private int head;
+    /**
+     * The real core's {@link Chip8Core#changes} when the speculation started.
+     */
+    private int changes;
+    private int frames;
+    private int instructionsPerSecond;
+    private double cycleCredit;
+    private boolean valid;
+    private Future<Long> pending;
+
+    public Chip8RunAhead() {
+        worker = Runtime.getRuntime().availableProcessors() > 1 ? Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "CHIP-8 Run-Ahead");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Starts speculating one more frame. Called before the real core runs its frame.
+     */
+    void beginFrame() {
+        if (valid && worker != null) {
+            pending = worker.submit(this::advance);
+        }
+    }
+
+    /**
+     * Checks the speculation against the real core, which has just run its frame and ticked its timers, and rolls
+     * it back if they differ.
+     *
+     * @param cycleCredit the clock's fractional instruction credit after the real frame
+     * @return the core to present: the speculative one, or {@code core} if speculation failed
+     */
+    Chip8Core endFrame(Chip8Core core, int frames, int instructionsPerSecond, double cycleCredit) {
+        long next = 0;
+        boolean advanced = false;
+        if (valid) {
+            try {
+                next = pending != null ? pending.get() : advance();
+                advanced = true;
+            } catch (ExecutionException | RuntimeException e) {
+                valid = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                valid = false;
+            }
+            pending = null;
+        }
+        if (advanced && frames == this.frames && instructionsPerSecond == this.instructionsPerSecond
+                && core.changes == changes && core.cycles == expected[head]) {
+            expected[head] = next;
+            head = (head + 1) % frames;
+            return ahead;
+        }
+        rollBack(core, frames, instructionsPerSecond, cycleCredit);
+        return valid ? ahead : core;
+    }
+
+    /**
+     * Drops the speculation, e.g. when run-ahead is switched off.
+     */
+    void invalidate() {
+        valid = false;
+    }
+
+    private void rollBack(Chip8Core core, int frames, int instructionsPerSecond, double cycleCredit) {
+        this.frames = frames;
+        this.instructionsPerSecond = instructionsPerSecond;
+        this.cycleCredit = cycleCredit;
+        head = 0;
+        changes = core.changes;
+        valid = false;
+        ahead.setQuirks(core.getQuirks());
+        if (ahead.isJitEnabled() != core.isJitEnabled()) {
+            ahead.setJitEnabled(core.isJitEnabled());
+        }
+        ahead.setDisplaySink(core.getDisplaySink());
+        transfer.captureFrom(core);
+        transfer.restoreTo(ahead);
+        try {
+            for (int i = 0; i < frames; i++) {
+                expected[i] = advance();
+            }
+            valid = true;
+        } catch (RuntimeException e) {
+            // The real core reports the error when it gets there; until then the real frames are presented.
+        }
+    }
+
+    /**
+     * Emulates the next frame on the speculative core, with the same instruction count the clock will give the real
+     * one.
+     *
+     * @return the instruction count at the end of the frame
+     */
+    private long advance() {
+        cycleCredit += (double) instructionsPerSecond / Chip8Clock.FRAME_RATE;
+        int cycles = (int) cycleCredit;
+        cycleCredit -= cycles;
+        ahead.runCycles(cycles);
+        ahead.tickTimers();
+        return ahead.cycles;
+    }
+
+    @Override
+    public void close() {
+        if (worker != null) {
+            worker.shutdownNow();
+        }
+    }
+}
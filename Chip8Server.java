@@ -0,0 +1,416 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams the displays of any number of {@link Chip8Core} instances to TCP clients and takes keypad input back over
+ * the same connections. A single thread runs every instance at 60 frames per second and serves all sockets through
+ * a non-blocking {@link Selector}; nothing in here depends on Swing.
+ *
+ * After each frame, the changes to an instance's display are encoded once into a direct buffer, and every client
+ * watching it that has received the previous frame is handed a duplicate of that buffer, so the packet is shared
+ * rather than copied per client. A client whose socket has not drained yet skips frames and, once it has, gets a
+ * keyframe of the whole display. Frames in which nothing changed are not sent.
+ *
+ * The protocol is big-endian. The server sends frame packets:
+ * <pre>
+ * u2 length of the rest, u1 flags (1 keyframe, 2 high resolution), u4 frame number,
+ * runs up to the last changed word: u1 unchanged words to skip, u1 word count, count x u8 words to XOR in
+ * </pre>
+ * The words are {@link Chip8Core}'s packed display. A keyframe is a delta against a blank display. Clients send
+ * two-byte messages: {@code 'W' n} to watch instance {@code n} (a new connection watches instance 0) and
+ * {@code 'K' key} with 0x10 added while pressed to press or release a key of the watched instance.
+ */
+public class Chip8Server implements Closeable {
+    public static final int DEFAULT_PORT = 8088;
+    static final int FLAG_KEYFRAME = 1;
+    static final int FLAG_HIRES = 2;
+    static final int HEADER = 7;
+    /**
+     * Each display word costs at most its 8 bytes plus one run header.
+     */
+    static final int MAX_PACKET = HEADER + 10 * Chip8Core.PLANES * Chip8Core.PLANE_WORDS;
+    static final byte WATCH = 'W';
+    static final byte KEY = 'K';
+    private static final long FRAME_NANOS = 1_000_000_000L / Chip8Clock.FRAME_RATE;
+    private static final int MAX_CATCH_UP_FRAMES = 5;
+
+    private static final class Instance {
+        final String name;
+        final Chip8Core core;
+        final long[] previous = new long[Chip8Core.PLANES * Chip8Core.PLANE_WORDS];
+        final ByteBuffer packet = ByteBuffer.allocateDirect(MAX_PACKET);
+        final List<Client> watchers = new ArrayList<>();
+        int frame;
+        double cycleCredit;
+        boolean failed;
+
+        Instance(String name, Chip8Core core) {
+            this.name = name;
+            this.core = core;
+        }
+    }
+
+    private static final class Client {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocateDirect(64);
+        /**
+         * Holds keyframes and what is left of a shared packet when the next frame overwrites it.
+         */
+        final ByteBuffer own = ByteBuffer.allocateDirect(MAX_PACKET);
+        ByteBuffer out;
+        Instance instance;
+        /**
+         * Whether the client has, or is being sent, the display its instance had at the end of the last frame.
+         */
+        boolean synced;
+
+        Client(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+    }
+
+    private final List<Instance> instances = new ArrayList<>();
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private final int instructionsPerSecond;
+    private volatile boolean running = true;
+
+    public Chip8Server(InetSocketAddress address, int instructionsPerSecond) throws IOException {
+        this.instructionsPerSecond = instructionsPerSecond;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this::run, "CHIP-8 Server");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Adds an instance to stream. The server thread owns the core from {@link #start()} on, so all instances must
+     * be added before that.
+     *
+     * @return the number clients pass to watch it
+     */
+    public int addInstance(String name, Chip8Core core) {
+        if (thread.isAlive()) {
+            throw new IllegalStateException("Instances must be added before the server starts");
+        }
+        instances.add(new Instance(name, core));
+        return instances.size() - 1;
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private void run() {
+        long deadline = System.nanoTime();
+        try {
+            while (running) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    selector.select(Math.max(1, remaining / 1_000_000));
+                } else {
+                    selector.selectNow();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    handle(key);
+                }
+                selector.selectedKeys().clear();
+
+                long now = System.nanoTime();
+                if (now - deadline >= 0) {
+                    if ((now - deadline) / FRAME_NANOS > MAX_CATCH_UP_FRAMES) {
+                        deadline = now;
+                    }
+                    deadline += FRAME_NANOS;
+                    for (Instance instance : instances) {
+                        runFrame(instance);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void handle(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            SocketChannel channel = server.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            Client client = new Client(channel, channel.register(selector, SelectionKey.OP_READ));
+            client.key.attach(client);
+            try {
+                if (!instances.isEmpty()) {
+                    watch(client, instances.get(0));
+                }
+            } catch (IOException e) {
+                disconnect(client);
+            }
+            return;
+        }
+        Client client = (Client) key.attachment();
+        try {
+            if (key.isWritable()) {
+                write(client);
+            }
+            if (key.isReadable()) {
+                read(client);
+            }
+        } catch (IOException e) {
+            disconnect(client);
+        }
+    }
+
+    private void read(Client client) throws IOException {
+        if (client.channel.read(client.in) < 0) {
+            disconnect(client);
+            return;
+        }
+        client.in.flip();
+        while (client.in.remaining() >= 2) {
+            byte type = client.in.get();
+            int argument = client.in.get() & 0xFF;
+            if (type == WATCH && argument < instances.size()) {
+                watch(client, instances.get(argument));
+            } else if (type == KEY) {
+                if (client.instance != null) {
+                    if ((argument & 0x10) != 0) {
+                        client.instance.core.keyDown(argument & 0xF);
+                    } else {
+                        client.instance.core.keyUp(argument & 0xF);
+                    }
+                }
+            } else {
+                disconnect(client);
+                return;
+            }
+        }
+        client.in.compact();
+    }
+
+    private void watch(Client client, Instance instance) throws IOException {
+        if (client.instance != null) {
+            client.instance.watchers.remove(client);
+            keepRest(client);
+        }
+        client.instance = instance;
+        client.synced = false;
+        instance.watchers.add(client);
+        send(client, instance);
+    }
+
+    /**
+     * Moves what is left to write of a shared packet into the client's own buffer, before the packet is overwritten.
+     */
+    private static void keepRest(Client client) {
+        if (client.out != null && client.out.hasRemaining() && client.out != client.own) {
+            client.own.clear();
+            client.own.put(client.out);
+            client.own.flip();
+            client.out = client.own;
+        }
+    }
+
+    private void disconnect(Client client) {
+        if (client.instance != null) {
+            client.instance.watchers.remove(client);
+        }
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            // Nothing left to clean up.
+        }
+    }
+
+    private void runFrame(Instance instance) {
+        if (instance.failed) {
+            return;
+        }
+        Chip8Core core = instance.core;
+        try {
+            instance.cycleCredit += (double) instructionsPerSecond / Chip8Clock.FRAME_RATE;
+            int cycles = (int) instance.cycleCredit;
+            instance.cycleCredit -= cycles;
+            core.runCycles(cycles);
+            core.tickTimers();
+        } catch (RuntimeException e) {
+            System.err.println(instance.name + ": " + e);
+            instance.failed = true;
+            return;
+        }
+        instance.frame++;
+
+        for (Client client : instance.watchers) {
+            if (client.out != null && client.out.hasRemaining()) {
+                keepRest(client);
+                client.synced = false;
+            }
+        }
+        instance.packet.clear();
+        boolean changed = encode(core.display, instance.previous, flags(core, 0), instance.frame, instance.packet);
+        instance.packet.flip();
+        System.arraycopy(core.display, 0, instance.previous, 0, instance.previous.length);
+
+        for (int i = instance.watchers.size() - 1; i >= 0; i--) {
+            Client client = instance.watchers.get(i);
+            if (client.synced && !changed) {
+                continue;
+            }
+            try {
+                send(client, instance);
+            } catch (IOException e) {
+                disconnect(client);
+            }
+        }
+    }
+
+    /**
+     * Starts sending the latest frame, the shared delta if the client is in sync and a keyframe otherwise. Does
+     * nothing while the client is still busy with an earlier packet.
+     */
+    private void send(Client client, Instance instance) throws IOException {
+        if (client.out != null && client.out.hasRemaining()) {
+            return;
+        }
+        if (client.synced) {
+            client.out = instance.packet.duplicate();
+        } else {
+            client.own.clear();
+            encode(instance.previous, null, flags(instance.core, FLAG_KEYFRAME), instance.frame, client.own);
+            client.own.flip();
+            client.out = client.own;
+            client.synced = true;
+        }
+        write(client);
+    }
+
+    private void write(Client client) throws IOException {
+        if (client.out != null) {
+            client.channel.write(client.out);
+        }
+        boolean pending = client.out != null && client.out.hasRemaining();
+        client.key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private static int flags(Chip8Core core, int flags) {
+        return core.isHighResolution() ? flags | FLAG_HIRES : flags;
+    }
+
+    /**
+     * Writes one frame packet holding the words of {@code display} that differ from {@code previous}, or all
+     * non-zero words when {@code previous} is null.
+     *
+     * @return whether any word differed
+     */
+    static boolean encode(long[] display, long[] previous, int flags, int frame, ByteBuffer out) {
+        int start = out.position();
+        out.position(start + 2);
+        out.put((byte) flags);
+        out.putInt(frame);
+        int i = 0;
+        while (true) {
+            int skip = 0;
+            while (i < display.length && display[i] == (previous != null ? previous[i] : 0)) {
+                i++;
+                skip++;
+            }
+            if (i == display.length) {
+                break;
+            }
+            while (skip > 255) {
+                out.put((byte) 255);
+                out.put((byte) 0);
+                skip -= 255;
+            }
+            int count = 0;
+            while (i + count < display.length && count < 255
+                    && display[i + count] != (previous != null ? previous[i + count] : 0)) {
+                count++;
+            }
+            out.put((byte) skip);
+            out.put((byte) count);
+            for (int end = i + count; i < end; i++) {
+                out.putLong(previous != null ? display[i] ^ previous[i] : display[i]);
+            }
+        }
+        int length = out.position() - start - 2;
+        out.putShort(start, (short) length);
+        return length > HEADER - 2;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = DEFAULT_PORT;
+        int ips = 600;
+        boolean jit = false;
+        Chip8Quirks quirks = null;
+        List<String> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--ips" -> ips = Integer.parseInt(args[++i]);
+                case "--jit" -> jit = true;
+                case "--quirks" -> quirks = Chip8Quirks.named(args[++i]);
+                default -> paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty()) {
+            System.err.println("Usage: java Chip8Server [--port N] [--ips N] [--jit] [--quirks profile] <rom, directory or zip>...");
+            System.exit(1);
+        }
+
+        Chip8Server server = new Chip8Server(new InetSocketAddress(port), ips);
+        for (Chip8Rom rom : Chip8Rom.openAll(paths)) {
+            Chip8Core core = new Chip8Core();
+            core.setJitEnabled(jit);
+            core.loadROM(rom);
+            if (quirks != null) {
+                core.setQuirks(quirks);
+            }
+            int index = server.addInstance(rom.name(), core);
+            System.out.printf("%d: %s%n", index, rom.name());
+        }
+        System.out.printf("Streaming on port %d%n", server.getPort());
+        server.start();
+        server.thread.join();
+    }
+}
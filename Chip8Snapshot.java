@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A copy of the complete machine state. Capturing and restoring are plain array copies, and restoring only drops
+ * cached decodes (and compiled blocks) for the 64-byte pages whose contents actually differ, so returning to a
+ * recent snapshot costs a few microseconds.
+ *
+ * The binary form is big-endian:
+ * <pre>
+ * u4 magic 'C8ST', u2 version, u4 memory size, memory,
+ * V0-VF, u4 I, u4 PC, u4 SP, 16 x u4 stack, u1 delay timer, u1 sound timer, u2 key bit mask,
+ * u4 display words, words x u8, u1 waiting for key, u1 key register, u1 1 + key pressed while waiting,
+ * u8 RNG state, u8 cycle count, u1 high resolution, u1 plane mask, 16 x u1 RPL flags, u1 audio pattern loaded,
+ * 16 x u1 audio pattern, u1 pitch
+ * </pre>
+ */
+public class Chip8Snapshot {
+    public static final int MAGIC = 0x43385354;
+    public static final int VERSION = 1;
+    static final int PAGE = 64;
+    private static final byte[] ZERO_PAGE = new byte[PAGE];
+
+    byte[] memory;
+    final byte[] V = new byte[16];
+    int I, pc, sp;
+    final int[] stack = new int[16];
+    int delayTimer, soundTimer;
+    int keys;
+    final long[] display;
+    boolean waitingForKeyPress;
+    int keyRegister;
+    int waitKey = -1;
+    long rngState;
+    long cycles;
+    boolean hires;
+    int planes = 1;
+    final byte[] flags = new byte[16];
+    boolean audioPatternLoaded;
+    final byte[] audioPattern = new byte[16];
+    int pitch = 64;
+
+    public Chip8Snapshot(int memorySize, int displayWords) {
+        memory = new byte[memorySize];
+        display = new long[displayWords];
+    }
+
+    public static Chip8Snapshot capture(Chip8Core core) {
+        Chip8Snapshot snapshot = new Chip8Snapshot(core.memory.length, core.display.length);
+        snapshot.captureFrom(core);
+        return snapshot;
+    }
+
+    /**
+     * Overwrites this snapshot with the current state of {@code core}, reusing the existing arrays unless the core's
+     * memory has grown to a different size.
+     */
+    public void captureFrom(Chip8Core core) {
+        if (memory.length != core.memory.length) {
+            memory = new byte[core.memory.length];
+        }
+        System.arraycopy(core.memory, 0, memory, 0, memory.length);
+        System.arraycopy(core.display, 0, display, 0, display.length);
+        captureRegisters(core);
+    }
+
+    /**
+     * Copies everything except memory and the display. Used on its own by {@link Chip8Rewind}, which stores those
+     * two as differences.
+     */
+    void captureRegisters(Chip8Core core) {
+        System.arraycopy(core.V, 0, V, 0, V.length);
+        I = core.I;
+        pc = core.pc;
+        sp = core.sp;
+        System.arraycopy(core.stack, 0, stack, 0, stack.length);
+        delayTimer = core.delayTimer;
+        soundTimer = core.soundTimer;
+        keys = 0;
+        for (int k = 0; k < core.keys.length; k++) {
+            if (core.keys[k]) {
+                keys |= 1 << k;
+            }
+        }
+        waitingForKeyPress = core.waitingForKeyPress;
+        keyRegister = core.keyRegister;
+        waitKey = core.waitKey;
+        rngState = core.rngState;
+        cycles = core.cycles;
+        hires = core.hires;
+        planes = core.planes;
+        System.arraycopy(core.flags, 0, flags, 0, flags.length);
+        audioPatternLoaded = core.audioPatternLoaded;
+        System.arraycopy(core.audioPattern, 0, audioPattern, 0, audioPattern.length);
+        pitch = core.pitch;
+    }
+
+    /**
+     * Puts {@code core} into the captured state. A core with less memory than the snapshot grows to its size; memory
+     * a core has beyond the snapshot's is cleared, as it was on the machine that was captured.
+     */
+    public void restoreTo(Chip8Core core) {
+        if (core.display.length != display.length) {
+            throw new IllegalArgumentException("Snapshot does not match the machine layout");
+        }
+        core.growMemory(memory.length);
+        byte[] target = core.memory;
+        for (int page = 0; page < target.length; page += PAGE) {
+            if (page >= memory.length) {
+                if (Arrays.mismatch(ZERO_PAGE, 0, PAGE, target, page, page + PAGE) >= 0) {
+                    Arrays.fill(target, page, page + PAGE, (byte) 0);
+                    core.invalidate(page, PAGE);
+                }
+            } else if (Arrays.mismatch(memory, page, page + PAGE, target, page, page + PAGE) >= 0) {
+                System.arraycopy(memory, page, target, page, PAGE);
+                core.invalidate(page, PAGE);
+            }
+        }
+        System.arraycopy(display, 0, core.display, 0, display.length);
+        restoreRegisters(core);
+        core.markDisplayDirty();
+    }
+
+    void restoreRegisters(Chip8Core core) {
+        System.arraycopy(V, 0, core.V, 0, V.length);
+        core.I = I;
+        core.pc = pc;
+        core.sp = sp;
+        System.arraycopy(stack, 0, core.stack, 0, stack.length);
+        core.delayTimer = delayTimer;
+        core.soundTimer = soundTimer;
+        for (int k = 0; k < core.keys.length; k++) {
+            core.keys[k] = (keys & (1 << k)) != 0;
+        }
+        core.waitingForKeyPress = waitingForKeyPress;
+        core.keyRegister = keyRegister;
+        core.waitKey = waitKey;
+        core.rngState = rngState;
+        core.cycles = cycles;
+        core.hires = hires;
+        core.planes = planes;
+        System.arraycopy(flags, 0, core.flags, 0, flags.length);
+        core.audioPatternLoaded = audioPatternLoaded;
+        System.arraycopy(audioPattern, 0, core.audioPattern, 0, audioPattern.length);
+        core.pitch = pitch;
+        core.audioChanged();
+        core.changes++;
+    }
+
+    public int byteSize() {
+        return 4 + 2 + 4 + memory.length + V.length + 4 * 3 + 4 * stack.length + 1 + 1 + 2
+                + 4 + 8 * display.length + 1 + 1 + 1 + 8 + 8 + 1 + 1 + flags.length + 1 + audioPattern.length + 1;
+    }
+
+    public void writeTo(ByteBuffer out) {
+        out.putInt(MAGIC);
+        out.putShort((short) VERSION);
+        out.putInt(memory.length);
+        out.put(memory);
+        out.put(V);
+        out.putInt(I);
+        out.putInt(pc);
+        out.putInt(sp);
+        for (int address : stack) {
+            out.putInt(address);
+        }
+        out.put((byte) delayTimer);
+        out.put((byte) soundTimer);
+        out.putShort((short) keys);
+        out.putInt(display.length);
+        for (long row : display) {
+            out.putLong(row);
+        }
+        out.put((byte) (waitingForKeyPress ? 1 : 0));
+        out.put((byte) keyRegister);
+        out.put((byte) (waitKey + 1));
+        out.putLong(rngState);
+        out.putLong(cycles);
+        out.put((byte) (hires ? 1 : 0));
+        out.put((byte) planes);
+        out.put(flags);
+        out.put((byte) (audioPatternLoaded ? 1 : 0));
+        out.put(audioPattern);
+        out.put((byte) pitch);
+    }
+
+    public static Chip8Snapshot readFrom(ByteBuffer in) throws IOException {
+        try {
+            return read(in);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                | NegativeArraySizeException e) {
+            throw new IOException("Truncated snapshot", e);
+        }
+    }
+
+    private static Chip8Snapshot read(ByteBuffer in) throws IOException {
+        if (in.getInt() != MAGIC) {
+            throw new IOException("Not a CHIP-8 snapshot");
+        }
+        int version = in.getShort() & 0xFFFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        int memorySize = in.getInt();
+        int start = in.position();
+        in.position(start + memorySize + 16 + 4 * 3 + 4 * 16 + 1 + 1 + 2);
+        int displayWords = in.getInt();
+        in.position(start);
+
+        Chip8Snapshot snapshot = new Chip8Snapshot(memorySize, displayWords);
+        in.get(snapshot.memory);
+        in.get(snapshot.V);
+        snapshot.I = in.getInt();
+        snapshot.pc = in.getInt();
+        snapshot.sp = in.getInt();
+        for (int i = 0; i < snapshot.stack.length; i++) {
+            snapshot.stack[i] = in.getInt();
+        }
+        snapshot.delayTimer = in.get() & 0xFF;
+        snapshot.soundTimer = in.get() & 0xFF;
+        snapshot.keys = in.getShort() & 0xFFFF;
+        in.getInt();
+        for (int i = 0; i < displayWords; i++) {
+            snapshot.display[i] = in.getLong();
+        }
+        snapshot.waitingForKeyPress = in.get() != 0;
+        snapshot.keyRegister = in.get() & 0xF;
+        snapshot.waitKey = (in.get() & 0xFF) - 1;
+        snapshot.rngState = in.getLong();
+        snapshot.cycles = in.getLong();
+        snapshot.hires = in.get() != 0;
+        snapshot.planes = in.get() & 0xFF;
+        in.get(snapshot.flags);
+        snapshot.audioPatternLoaded = in.get() != 0;
+        in.get(snapshot.audioPattern);
+        snapshot.pitch = in.get() & 0xFF;
+        return snapshot;
+    }
+
+    /**
+     * Writes the snapshot straight into a memory-mapped file.
+     */
+    public void save(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, byteSize());
+            writeTo(out);
+            out.force();
+        }
+    }
+
+    public static Chip8Snapshot load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readFrom(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * Watches an instance streamed by {@link Chip8Server}. Frame packets are applied to the display of a local
+ * {@link Chip8Core} that is never run, so whatever draws a core ({@link Chip8Renderer}, {@link Chip8Headless}'s
+ * text dump) can draw the remote display too.
+ */
+public class Chip8StreamClient implements Closeable {
+    private final SocketChannel channel;
+    private final ByteBuffer in = ByteBuffer.allocateDirect(Chip8Server.MAX_PACKET);
+    private final ByteBuffer out = ByteBuffer.allocateDirect(2);
+    private final Chip8Core screen = new Chip8Core();
+    private int frame;
+
+    public Chip8StreamClient(InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        in.limit(0);
+    }
+
+    /**
+     * Switches to another instance. Frames of the previous one may still arrive until the server's keyframe.
+     */
+    public void watch(int instance) throws IOException {
+        send(Chip8Server.WATCH, instance);
+    }
+
+    public void key(int key, boolean pressed) throws IOException {
+        send(Chip8Server.KEY, key | (pressed ? 0x10 : 0));
+    }
+
+    private void send(byte type, int argument) throws IOException {
+        out.clear();
+        out.put(type);
+        out.put((byte) argument);
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    /**
+     * Blocks until the next frame packet has arrived and applies it to {@link #getScreen()}.
+     *
+     * @return the frame number
+     */
+    public int readFrame() throws IOException {
+        fill(2);
+        int length = in.getShort() & 0xFFFF;
+        fill(length);
+        int end = in.position() + length;
+        int flags = in.get();
+        frame = in.getInt();
+        long[] display = screen.display;
+        if ((flags & Chip8Server.FLAG_KEYFRAME) != 0) {
+            Arrays.fill(display, 0);
+        }
+        int word = 0;
+        while (in.position() < end) {
+            word += in.get() & 0xFF;
+            int count = in.get() & 0xFF;
+            for (int i = 0; i < count; i++) {
+                display[word++] ^= in.getLong();
+            }
+        }
+        screen.hires = (flags & Chip8Server.FLAG_HIRES) != 0;
+        screen.markDisplayDirty();
+        return frame;
+    }
+
+    private void fill(int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return;
+        }
+        in.compact();
+        while (in.position() < bytes) {
+            if (channel.read(in) < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+        }
+        in.flip();
+    }
+
+    /**
+     * Returns the core holding the remote display. Only its display and resolution are kept up to date.
+     */
+    public Chip8Core getScreen() {
+        return screen;
+    }
+
+    public int getFrame() {
+        return frame;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = "localhost";
+        int port = Chip8Server.DEFAULT_PORT;
+        int instance = 0;
+        int frames = 60;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--host" -> host = args[++i];
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--instance" -> instance = Integer.parseInt(args[++i]);
+                case "--frames" -> frames = Integer.parseInt(args[++i]);
+                default -> {
+                    System.err.println("Usage: java Chip8StreamClient [--host name] [--port N] [--instance N] [--frames N]");
+                    System.exit(1);
+                }
+            }
+        }
+
+        try (Chip8StreamClient client = new Chip8StreamClient(new InetSocketAddress(host, port))) {
+            if (instance != 0) {
+                client.watch(instance);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < frames; i++) {
+                client.readFrame();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%d packets in %.3f s, last frame %d%n", frames, elapsed / 1e9, client.getFrame());
+            System.out.print(Chip8Headless.render(client.getScreen()));
+        }
+    }
+}
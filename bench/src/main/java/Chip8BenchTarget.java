@@ -0,0 +1,81 @@
+import chip8.bench.Chip8Target;
+
+import java.awt.*;
+
+/**
+ * Gives the JMH benchmarks access to the emulator internals they measure.
+ */
+public class Chip8BenchTarget implements Chip8Target {
+    private static final int SPRITE_ADDRESS = Chip8Core.MEMORY_SIZE - 32;
+
+    private final Chip8Core core = new Chip8Core();
+    private final Chip8Renderer renderer = new Chip8Renderer();
+    private Chip8Debugger debugger;
+    private int nextKey;
+
+    public Chip8BenchTarget() {
+        for (int row = 0; row < 32; row++) {
+            core.memory[SPRITE_ADDRESS + row] = (byte) (row % 2 == 0 ? 0xAA : 0x55);
+        }
+    }
+
+    @Override
+    public void load(byte[] rom, boolean jit, long seed) {
+        core.reset();
+        core.setSeed(seed);
+        core.setJitEnabled(jit);
+        core.loadROM(rom);
+    }
+
+    @Override
+    public long run(long cycles, int cyclesPerFrame) {
+        long executed = 0;
+        while (executed < cycles) {
+            executed += core.runFrame((int) Math.min(cyclesPerFrame, cycles - executed));
+            if (core.isWaitingForKeyPress()) {
+                core.keyDown(nextKey);
+                core.keyUp(nextKey);
+                nextKey = (nextKey + 1) & 0xF;
+            }
+        }
+        return executed;
+    }
+
+    @Override
+    public int drawSprite(int x, int y, int height) {
+        core.V[0] = (byte) x;
+        core.V[1] = (byte) y;
+        core.I = SPRITE_ADDRESS;
+        core.drawSprite(0, 1, height);
+        return core.V[0xF];
+    }
+
+    @Override
+    public void setHighResolution(boolean hires) {
+        core.setResolution(hires);
+    }
+
+    @Override
+    public void renderFrame(Graphics2D g, int width, int height) {
+        synchronized (core) {
+            core.markDisplayDirty();
+            renderer.update(core);
+        }
+        renderer.paint(g, width, height);
+    }
+
+    @Override
+    public void openDebugger() {
+        debugger = new Chip8Debugger(core, new Chip8Rewind(1), () -> false);
+    }
+
+    @Override
+    public void updateDebugger() {
+        debugger.updateDebugger();
+    }
+
+    @Override
+    public void closeDebugger() {
+        debugger.dispose();
+    }
+}
@@ -0,0 +1,48 @@
+package chip8.bench;
+
+import java.awt.Graphics2D;
+
+/**
+ * What the benchmarks drive. The emulator classes live in the unnamed package, which named packages cannot import,
+ * so the implementation ({@code Chip8BenchTarget}) sits next to them and is looked up by name.
+ */
+public interface Chip8Target {
+    static Chip8Target create() {
+        try {
+            return (Chip8Target) Class.forName("Chip8BenchTarget").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Chip8BenchTarget is not on the class path", e);
+        }
+    }
+
+    void load(byte[] rom, boolean jit, long seed);
+
+    /**
+     * Runs {@code cycles} instructions, ticking the timers every {@code cyclesPerFrame} and answering FX0A with a
+     * key press so programs that wait for input keep running.
+     */
+    long run(long cycles, int cyclesPerFrame);
+
+    /**
+     * Executes one DXYN at (x, y) with an {@code height}-row sprite, or a 16x16 DXY0 sprite for a height of 0,
+     * returning VF.
+     */
+    int drawSprite(int x, int y, int height);
+
+    /**
+     * Switches between the 64x32 and the 128x64 display (00FE/00FF).
+     */
+    void setHighResolution(boolean hires);
+
+    /**
+     * Marks every row dirty, copies the framebuffer into the renderer and paints it scaled to {@code width} x
+     * {@code height}, which is what the emulator panel does for each frame.
+     */
+    void renderFrame(Graphics2D g, int width, int height);
+
+    void openDebugger();
+
+    void updateDebugger();
+
+    void closeDebugger();
+}
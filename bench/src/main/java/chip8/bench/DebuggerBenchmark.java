@@ -0,0 +1,44 @@
+package chip8.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One debugger refresh, either with nothing changed since the last one or after a frame of {@code pong.ch8}. The
+ * window is created but never shown; Swing still needs a display, so this does not run headless.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DebuggerBenchmark {
+    @Param({"false", "true"})
+    public boolean running;
+
+    private Chip8Target target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        target = Chip8Target.create();
+        target.load(Files.readAllBytes(InterpreterBenchmark.romDirectory().resolve("pong.ch8")), false, 1);
+        target.openDebugger();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        target.closeDebugger();
+    }
+
+    @Benchmark
+    public void updateDebugger() {
+        if (running) {
+            target.run(10, 10);
+        }
+        target.updateDebugger();
+    }
+}
@@ -0,0 +1,39 @@
+package chip8.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The DXYN path on its own: one sprite per operation, at a coordinate that walks across the screen so both
+ * aligned, straddling and wrapping positions are covered. A height of 0 draws 16x16 DXY0 sprites, and the
+ * high-resolution runs draw across the two words of each 128-pixel row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DrawBenchmark {
+    @Param({"1", "5", "15", "0"})
+    public int height;
+
+    @Param({"false", "true"})
+    public boolean hires;
+
+    private Chip8Target target;
+    private int position;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        target = Chip8Target.create();
+        target.setHighResolution(hires);
+    }
+
+    @Benchmark
+    public int drawSprite() {
+        int p = position++;
+        return target.drawSprite(p * 7, p * 3, height);
+    }
+}
@@ -0,0 +1,62 @@
+package chip8.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instruction throughput on the bundled ROMs. With {@code @OperationsPerInvocation} the reported ops/s is
+ * instructions per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    static final int CYCLES = 100_000;
+
+    @Param({"IBM.ch8", "maze.ch8", "pong.ch8", "wall.ch8", "puzzle.ch8"})
+    public String rom;
+
+    @Param({"false", "true"})
+    public boolean jit;
+
+    /**
+     * Instructions per emulated frame. Frame boundaries cut compiled blocks, so the recompiler gains far less at
+     * the default 10 than when a frame never ends.
+     */
+    @Param({"10", "1000000"})
+    public int ipf;
+
+    private Chip8Target target;
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void loadRom() throws IOException {
+        data = Files.readAllBytes(romDirectory().resolve(rom));
+        target = Chip8Target.create();
+    }
+
+    @Setup(Level.Iteration)
+    public void restart() {
+        target.load(data, jit, 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public long run() {
+        return target.run(CYCLES, ipf);
+    }
+
+    /**
+     * Defaults to the repository's {@code test roms} folder when run from {@code bench/}.
+     */
+    static Path romDirectory() {
+        return Path.of(System.getProperty("chip8.roms", "../test roms"));
+    }
+}
@@ -0,0 +1,49 @@
+package chip8.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of presenting one frame: copying every row into the renderer and painting it scaled into an offscreen image
+ * the size of the emulator window. Runs headless.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    @Param({"640", "1280"})
+    public int width;
+
+    private Chip8Target target;
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        target = Chip8Target.create();
+        target.load(Files.readAllBytes(InterpreterBenchmark.romDirectory().resolve("maze.ch8")), false, 1);
+        target.run(InterpreterBenchmark.CYCLES, 10);
+        image = new BufferedImage(width, width / 2, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public void renderFrame(Blackhole blackhole) {
+        target.renderFrame(graphics, image.getWidth(), image.getHeight());
+        blackhole.consume(image);
+    }
+}
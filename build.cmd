@@ -1,4 +1,4 @@
 @echo off
-javac .\Chip8Emulator.java
+javac .\*.java
 jar cfm .\C8-Emu.jar .\Manifest.txt .\*.class
 del *.class
\ No newline at end of file